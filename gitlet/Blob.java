@@ -1,36 +1,54 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.Serializable;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /** Class the represent the blob that store file metadata.
+ * The id of a blob depends only on its content, so the same content
+ * stored under several names, or renamed, is stored once; the names live
+ * in the blob mapping of each commit. A blob never holds the file content
+ * on the heap: the id is computed by streaming the source file through
+ * SHA-1, and the content is copied between the working directory and the
+ * blob store in bounded buffers, byte for byte. Stored blobs are kept in
+ * the ObjectStore.
  * @author Vinh Bui
  */
 
-public class Blob implements Serializable {
+public class Blob {
     /** Return the default folder for Gitlet. **/
     private static String _defaultFolder = Gitlet.getDefaultFolder()
             + "/blobs";
-    /** Create Blob object by file class and content.
-     * @param file file class to destination.
-     * @param content the content of the file.
-     */
-    Blob(File file, String content) {
-        _filename = file.getName();
-        _file = file;
-        _content = content;
-        _id = Utils.sha1(_filename, _content);
-    }
 
-    /** Create Blob instance with file name and content.
+    /** Create Blob instance from a file in the working directory.
      * @param filename name of the file.
-     * @param content content of the file.
+     * @param source the file holding the content.
      * **/
-    Blob(String filename, String content) {
+    Blob(String filename, File source) {
         _filename = filename;
-        _content = content;
-        _id = Utils.sha1(_filename, _content);
-        _file = new File(_defaultFolder + "/" + _id + ".blob");
+        _file = source;
+        _id = idOf(source.length(), source);
+    }
+
+    /** Compute the id of a blob from its content.
+     * @param length the length of the content.
+     * @param content a File or an InputStream holding the content.
+     * @return the id.
+     * **/
+    static String idOf(long length, Object content) {
+        return Utils.sha1("blob " + length + "\0", content);
+    }
+
+    /** Create Blob instance for an already stored blob.
+     * @param id id of the blob.
+     * **/
+    private Blob(String id) {
+        _id = id;
+        _stored = true;
     }
 
     /** Return id of Blob. **/
@@ -43,17 +61,28 @@ public class Blob implements Serializable {
         return _filename;
     }
 
-    /** Return the content of blob. **/
-    public String getContent() {
-        return _content;
+    /** Return the content of blob. This reads the whole content into
+     * memory, so only use it for files that are known to be small. **/
+    public byte[] getContent() {
+        if (_stored) {
+            return ObjectStore.read(ObjectStore.BLOB, _id);
+        }
+        return Utils.readContents(_file);
     }
 
-    /** Set content of the blob.
-     * @param content the content of the file.
+    /** Copy the content of the blob into a file.
+     * @param dest the file to write to.
      * **/
-    public void setContent(String content) {
-        this._content = content;
-        this._id = Utils.sha1(_filename, content);
+    public void writeTo(File dest) {
+        try (InputStream in = _stored
+                ? ObjectStore.open(ObjectStore.BLOB, _id)
+                : new FileInputStream(_file);
+             OutputStream out = new BufferedOutputStream(
+                     new FileOutputStream(dest))) {
+            ObjectStore.copy(in, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     /** Check if two blobs are the same.
@@ -67,13 +96,17 @@ public class Blob implements Serializable {
         return false;
     }
 
-    /** Serialize the object into file. **/
+    /** Save the content into the blob store, unless a blob with the same
+     * id is already there. **/
     public void toFile() {
-        String fileName = _file.getParent() + "/" + _id + ".blob";
-        File file = new File(fileName);
-        if (!file.exists()) {
-            Utils.writeObject(file, this);
+        if (_stored || ObjectStore.contains(ObjectStore.BLOB, _id)) {
+            return;
+        }
+        if (Chunker.chunked(_file.length())) {
+            Chunker.store(_id, _file, Gitlet.getJobs());
+            return;
         }
+        ObjectStore.write(ObjectStore.BLOB, _id, _file);
     }
 
     /** Static class function read data from file.
@@ -81,11 +114,7 @@ public class Blob implements Serializable {
      * @return Blob object
      */
     public static Blob fromFile(File file) {
-        if (!file.exists()) {
-            return null;
-        }
-        Blob blob = Utils.readObject(file, Blob.class);
-        return blob;
+        return fromFile(ObjectStore.idOf(file));
     }
 
     /** Static class function read data from file.
@@ -93,12 +122,15 @@ public class Blob implements Serializable {
      * @return Blob object
      */
     public static Blob fromFile(String id) {
-        File file = new File(_defaultFolder + "/" + id + ".blob");
-        if (!file.exists()) {
+        if (!ObjectStore.contains(ObjectStore.BLOB, id)) {
             return null;
         }
-        Blob blob = Utils.readObject(file, Blob.class);
-        return blob;
+        return new Blob(id);
+    }
+
+    /** Return the folder of the loose blobs. **/
+    public static String getFolderPath() {
+        return _defaultFolder;
     }
 
     /** Mainly use this function for testing purpose.
@@ -114,9 +146,10 @@ public class Blob implements Serializable {
     /** The file name of the blob. **/
     private String _filename;
 
-    /** The content of the file. **/
-    private String _content;
-
-    /** File object connect to file. **/
+    /** File in the working directory holding the content, for blobs that
+     * are not stored yet. **/
     private File _file;
+
+    /** True if the blob comes from the ObjectStore. **/
+    private boolean _stored;
 }
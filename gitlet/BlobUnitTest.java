@@ -12,34 +12,58 @@ public class BlobUnitTest {
     private String _folder = "testing/blobs";
     private String _initialContent = "Hello World!";
     String _fileName = "Hello.txt";
-    String _sha1Name = Utils.sha1(_fileName, _initialContent);
+    String _sha1Name = Utils.sha1("blob 12\0", _initialContent);
+
+    /** Store a blob made from a source file written under the blob folder,
+     * deleting the source afterwards.
+     * @param name name of the source file.
+     * @param content its content, a String or a byte[].
+     * @return the stored blob.
+     * **/
+    private Blob save(String name, Object content) {
+        Blob.setDefaultFolder(_folder);
+        new File(_folder).mkdirs();
+        File source = new File(_folder, name);
+        Utils.writeContents(source, content);
+        try {
+            Blob blob = new Blob(name, source);
+            blob.toFile();
+            return blob;
+        } finally {
+            source.delete();
+        }
+    }
 
     @Test
     public void testSaveFile() {
-        Blob.setDefaultFolder(_folder);
-        File folder = new File(_folder);
-        folder.mkdir();
-        Blob blob = new Blob(_fileName, _initialContent);
-        blob.toFile();
-        File file = new File(_folder + "/" + blob.getId() + ".blob");
+        Blob blob = save(_fileName, _initialContent);
+        assertEquals(_sha1Name, blob.getId());
+        File file = new File(_folder + "/" + blob.getId().substring(0, 2)
+                + "/" + blob.getId().substring(2));
         assertTrue(file.exists());
     }
 
     @Test
     public void testLoadFile1() {
-        File file = new File(_folder + "/" + _sha1Name);
+        save(_fileName, _initialContent);
+        File file = ObjectStore.loosePath(ObjectStore.BLOB, _sha1Name);
         Blob blob = Blob.fromFile(file);
-        assertEquals(_initialContent, blob.getContent());
+        assertEquals(_initialContent, new String(blob.getContent()));
     }
 
     @Test
-    public void testAppendData() {
-        File file = new File(_folder + "/" + _sha1Name);
-        Blob blob = Blob.fromFile(file);
-        blob.setContent("This is Vinh Bui");
-        String id = blob.getId();
-        blob.toFile();
-        File newFile = new File(_folder + "/" + id);
-        assertTrue(newFile.exists());
+    public void testBinaryRoundTrip() {
+        byte[] content = new byte[3 * Utils.BUFFER_SIZE + 17];
+        for (int i = 0; i < content.length; i += 1) {
+            content[i] = (byte) (i * 31);
+        }
+        Blob blob = save("binary.bin", content);
+        File copy = new File(_folder, "binary.copy");
+        try {
+            Blob.fromFile(blob.getId()).writeTo(copy);
+            assertArrayEquals(content, Utils.readContents(copy));
+        } finally {
+            copy.delete();
+        }
     }
 }
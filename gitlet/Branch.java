@@ -1,13 +1,24 @@
 package gitlet;
 
 import java.io.File;
-import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 /** This class represent the branches of the gitlet.
+ * A branch is stored as a small ref file holding the id of its latest
+ * commit. Refs can also be consolidated into a single packed-refs file,
+ * in which case a loose ref file, if present, takes precedence. Deleting
+ * a packed branch leaves an empty loose ref, a tombstone, instead of
+ * rewriting packed-refs; the next pack-refs drops both.
  * @author Vinh Bui
  * **/
-class Branch implements Serializable {
-    /** The latest commit of the branch. **/
+class Branch {
+    /** The id of the latest commit of the branch. **/
+    private String _commitId;
+    /** The latest commit of the branch, loaded lazily. **/
     private Commit _commit;
     /** The name of the branch. **/
     private String _name;
@@ -18,19 +29,37 @@ class Branch implements Serializable {
      * **/
     Branch(String name, Commit commit) {
         _name = name;
-        _commit = commit;
+        setCommit(commit);
+    }
+
+    /** Construct a branch that points to a commit id.
+     * @param name name of the branch.
+     * @param commitId id of the latest commit.
+     * **/
+    Branch(String name, String commitId) {
+        _name = name;
+        _commitId = commitId;
     }
 
     /** Return the commit. **/
     public Commit getCommit() {
+        if (_commit == null) {
+            _commit = Commit.fromFile(_commitId);
+        }
         return _commit;
     }
 
+    /** Return the id of the latest commit. **/
+    public String getCommitId() {
+        return _commitId;
+    }
+
     /** Change to a new commit.
      * @param commit the new commit.
      * **/
     public void setCommit(Commit commit) {
         this._commit = commit;
+        this._commitId = commit.getId();
     }
 
     /** Return the branch name. **/
@@ -45,31 +74,156 @@ class Branch implements Serializable {
         this._name = name;
     }
 
-    /** Save branch into name. **/
+    /** Save branch into its ref file. The commit itself must already be
+     * saved. **/
     public void toFile() {
         File file = new File(_defaultFolder + _name);
-        _commit.toFile();
-        Utils.writeObject(file, this);
+        Utils.writeContents(file, _commitId + "\n");
     }
 
     /** Load the branch from file.
      * @param name name of branch.
-     * @return Branch instance.
+     * @return Branch instance, or null if there is no such branch.
      * **/
     public static Branch fromFile(String name) {
         File file = new File(_defaultFolder + name);
-        return Utils.readObject(file, Branch.class);
+        if (file.isFile()) {
+            String id = Utils.readContentsAsString(file).trim();
+            return id.isEmpty() ? null : new Branch(name, id);
+        }
+        String id = packedRefs().get(name);
+        if (id == null) {
+            return null;
+        }
+        return new Branch(name, id);
     }
 
-    /** Remove a file stored Branch info.
+    /** Check whether a branch exists.
+     * @param name name of the branch.
+     * @return true if there is a loose or packed ref with that name.
+     * **/
+    public static boolean exists(String name) {
+        File file = new File(_defaultFolder + name);
+        if (file.isFile()) {
+            return file.length() > 0;
+        }
+        return packedRefs().containsKey(name);
+    }
+
+    /** Remove a file stored Branch info. A packed branch is hidden by a
+     * tombstone, so packed-refs is left as it is.
      * @param name name of the branch.
      * **/
     public static void removeFile(String name) {
         File file = new File(_defaultFolder + name);
-        file.delete();
+        if (packedRefs().containsKey(name)) {
+            Utils.writeContents(file, "");
+        } else {
+            file.delete();
+        }
+    }
+
+    /** List the names of all branches.
+     * @return branch names in lexicographic order.
+     * **/
+    public static List<String> names() {
+        TreeSet<String> names = new TreeSet<>(packedRefs().keySet());
+        List<String> loose = Utils.plainFilenamesIn(_defaultFolder);
+        if (loose != null) {
+            for (String name : loose) {
+                if (new File(_defaultFolder + name).length() > 0) {
+                    names.add(name);
+                } else {
+                    names.remove(name);
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /** Move every loose ref into the packed-refs file, dropping the
+     * packed refs that have a tombstone. **/
+    public static void packRefs() {
+        TreeMap<String, String> refs = packedRefs();
+        List<String> loose = Utils.plainFilenamesIn(_defaultFolder);
+        if (loose == null) {
+            return;
+        }
+        for (String name : loose) {
+            File file = new File(_defaultFolder + name);
+            String id = Utils.readContentsAsString(file).trim();
+            if (id.isEmpty()) {
+                refs.remove(name);
+            } else {
+                refs.put(name, id);
+            }
+        }
+        writePackedRefs();
+        for (String name : loose) {
+            new File(_defaultFolder + name).delete();
+        }
+    }
+
+    /** Load the branch HEAD points to.
+     * @return the current branch.
+     * **/
+    public static Branch head() {
+        String name = Utils.readContentsAsString(headFile()).trim();
+        return fromFile(name);
+    }
+
+    /** Point HEAD to a branch.
+     * @param name name of the branch.
+     * **/
+    public static void setHead(String name) {
+        Utils.writeContents(headFile(), name + "\n");
+    }
+
+    /** Return the file that stores the name of the current branch. **/
+    private static File headFile() {
+        return new File(Gitlet.getDefaultFolder() + "/HEAD");
+    }
+
+    /** Return the packed-refs file. **/
+    private static File packedFile() {
+        return new File(Gitlet.getDefaultFolder() + "/packed-refs");
+    }
+
+    /** Read the packed-refs file once and keep it for the process.
+     * @return mapping from branch name to commit id.
+     * **/
+    private static TreeMap<String, String> packedRefs() {
+        if (_packed == null) {
+            _packed = new TreeMap<>();
+            File file = packedFile();
+            if (file.isFile()) {
+                String content = Utils.readContentsAsString(file);
+                for (String line : content.split("\n")) {
+                    int space = line.indexOf(' ');
+                    if (space > 0) {
+                        _packed.put(line.substring(space + 1),
+                                line.substring(0, space));
+                    }
+                }
+            }
+        }
+        return _packed;
+    }
+
+    /** Rewrite the packed-refs file from the cached refs. **/
+    private static void writePackedRefs() {
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, String> ref : packedRefs().entrySet()) {
+            content.append(ref.getValue()).append(' ')
+                    .append(ref.getKey()).append('\n');
+        }
+        Utils.writeContents(packedFile(), content.toString());
     }
 
     /** Default location for branches. **/
     private static String _defaultFolder = Gitlet.getDefaultFolder()
             + "/branches/";
+
+    /** Cached content of the packed-refs file. **/
+    private static TreeMap<String, String> _packed;
 }
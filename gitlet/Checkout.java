@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/** Writes blobs into the working directory. A batch of files is written
+ * on up to a given number of threads of a fork-join pool; each thread
+ * opens and decodes its next blob while the others are writing theirs,
+ * so reading the object store and writing the working directory overlap.
+ * Every file is written to a temporary file in its own directory and
+ * then renamed over the old one, so a crash leaves either the old or the
+ * new content, never part of it. The stat cache is only updated once all
+ * the files are written.
+ * @author Vinh Bui
+ * **/
+class Checkout {
+
+    /** Create a writer for a working directory.
+     * @param dir the working directory.
+     * @param stats the stat cache of the working directory.
+     * @param jobs maximum number of threads.
+     * **/
+    Checkout(File dir, StatCache stats, int jobs) {
+        _dir = dir;
+        _stats = stats;
+        _jobs = jobs;
+    }
+
+    /** Write the blobs of several files.
+     * @param files mapping from file name to blob id.
+     * **/
+    void write(Map<String, String> files) {
+        List<String> names = new ArrayList<>(files.keySet());
+        int count = names.size();
+        IntStream work = IntStream.range(0, count);
+        if (_jobs <= 1 || count <= 1) {
+            work.forEach(i -> writeFile(names.get(i),
+                    files.get(names.get(i))));
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(_jobs);
+            try {
+                pool.submit(() -> work.parallel().forEach(
+                        i -> writeFile(names.get(i),
+                                files.get(names.get(i))))).get();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                throw Utils.error("Interrupted while writing files.");
+            } catch (ExecutionException excp) {
+                if (excp.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) excp.getCause();
+                }
+                throw new IllegalArgumentException(excp.getMessage());
+            } finally {
+                pool.shutdown();
+            }
+        }
+        for (String name : names) {
+            _stats.record(name, new File(_dir, name), files.get(name));
+        }
+    }
+
+    /** Write the blob of one file through a temporary file, without
+     * touching the stat cache, so that it can run on any thread.
+     * @param name name of the file.
+     * @param id id of the blob.
+     * **/
+    private void writeFile(String name, String id) {
+        File file = new File(_dir, name);
+        File parent = file.getParentFile();
+        parent.mkdirs();
+        File temp = null;
+        try {
+            temp = File.createTempFile(TEMP_PREFIX, ".tmp", parent);
+            Blob blob = Blob.fromFile(id);
+            if (blob == null) {
+                throw Utils.error("No blob with id %s.", id);
+            }
+            blob.writeTo(temp);
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            temp = null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /** Prefix of temporary files; it is at least three characters long,
+     * as File.createTempFile requires. **/
+    private static final String TEMP_PREFIX = ".gitlet-";
+    /** The working directory. **/
+    private final File _dir;
+    /** The stat cache of the working directory. **/
+    private final StatCache _stats;
+    /** Maximum number of threads. **/
+    private final int _jobs;
+}
@@ -0,0 +1,45 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.File;
+import java.util.TreeMap;
+
+/** Unit test for the checkout writer.
+ * @author Vinh Bui
+ * **/
+public class CheckoutUnitTest {
+    private final File _dir = new File("testing/checkout");
+
+    /** Store CONTENT as a blob.
+     * @param content the content.
+     * @return the blob id.
+     * **/
+    private String store(String content) {
+        File source = new File("testing/checkout-source.txt");
+        Utils.writeContents(source, content);
+        String id = Blob.idOf(source.length(), source);
+        ObjectStore.write(ObjectStore.BLOB, id, source);
+        return id;
+    }
+
+    @Test
+    public void testWritesEveryFileAtomically() {
+        Gitlet.setDefaultFolder("testing/checkout-gitlet");
+        new File(_dir, "old.txt").delete();
+        _dir.mkdirs();
+        Utils.writeContents(new File(_dir, "old.txt"), "old");
+        TreeMap<String, String> files = new TreeMap<>();
+        for (int i = 0; i < 20; i += 1) {
+            files.put("sub/f" + i + ".txt", store("file " + i));
+        }
+        files.put("old.txt", store("new"));
+        StatCache cache = StatCache.load(new File("testing/checkout-stat"));
+        new Checkout(_dir, cache, 4).write(files);
+        assertEquals("new", Utils.readContentsAsString(
+                new File(_dir, "old.txt")));
+        assertEquals("file 7", Utils.readContentsAsString(
+                new File(_dir, "sub/f7.txt")));
+        assertEquals(20, new File(_dir, "sub").list().length);
+    }
+}
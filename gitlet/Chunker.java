@@ -0,0 +1,260 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/** Content-defined chunking of large blobs. A file of at least
+ * THRESHOLD bytes is cut into chunks where a rolling gear hash of the
+ * last 64 bytes has its top 16 bits clear, so a boundary depends only on
+ * the bytes around it: an insertion or a change moves the boundaries
+ * next to it and leaves every other chunk as it was. Chunks are between
+ * MIN_SIZE and MAX_SIZE bytes, about 80 KB on average, and are stored as
+ * CHUNK objects under the hash of their content, so a chunk shared by two
+ * versions of a file, or by two files, is stored once.
+ * The blob itself keeps its id, the hash of the whole content, and is
+ * stored as a chunk list: the number of chunks followed by the id and
+ * length of each. Reading the blob streams the chunks one after the
+ * other, so callers never see the difference.
+ * @author Vinh Bui
+ * **/
+class Chunker {
+
+    /** Return true if a file of LENGTH bytes is stored as chunks.
+     * @param length the size of the file.
+     * @return true if it is chunked.
+     * **/
+    static boolean chunked(long length) {
+        return length >= THRESHOLD;
+    }
+
+    /** Store a file as chunks, hashing and writing the chunks on up to
+     * JOBS threads, then store the blob ID as the list of its chunks.
+     * @param id the blob id of the file.
+     * @param file the file.
+     * @param jobs maximum number of threads.
+     * **/
+    static void store(String id, File file, int jobs) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            long length = channel.size();
+            long[] ends = split(channel, length);
+            String[] ids = new String[ends.length];
+            IntStream work = IntStream.range(0, ends.length);
+            if (jobs <= 1 || ends.length <= 1) {
+                work.forEach(i -> ids[i] = storeChunk(channel, ends, i));
+            } else {
+                ForkJoinPool pool = new ForkJoinPool(jobs);
+                try {
+                    pool.submit(() -> work.parallel().forEach(
+                            i -> ids[i] = storeChunk(channel, ends, i)))
+                            .get();
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                    throw Utils.error("Interrupted while storing chunks.");
+                } catch (ExecutionException excp) {
+                    if (excp.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) excp.getCause();
+                    }
+                    throw new IllegalArgumentException(excp.getMessage());
+                } finally {
+                    pool.shutdown();
+                }
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(ids.length);
+            for (int i = 0; i < ids.length; i += 1) {
+                out.write(Pack.toBytes(ids[i]));
+                out.writeLong(ends[i] - (i == 0 ? 0 : ends[i - 1]));
+            }
+            out.close();
+            ObjectStore.writeChunkList(id, length, bytes.toByteArray());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the ids of the chunks of a chunk list.
+     * @param list the encoded chunk list.
+     * @return the chunk ids, in order.
+     * **/
+    static List<String> ids(byte[] list) {
+        ArrayList<String> result = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(list))) {
+            int count = in.readInt();
+            byte[] id = new byte[Utils.UID_LENGTH / 2];
+            for (int i = 0; i < count; i += 1) {
+                in.readFully(id);
+                in.readLong();
+                result.add(Pack.toHex(id));
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Corrupted chunk list.");
+        }
+        return result;
+    }
+
+    /** Open a chunked blob.
+     * @param list the encoded chunk list.
+     * @param length the length of the blob.
+     * @return a stream of its content, reading one chunk at a time.
+     * **/
+    static ObjectStore.ObjectStream open(byte[] list, long length) {
+        List<String> chunks = ids(list);
+        InputStream in = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] buffer, int off, int len)
+                    throws IOException {
+                while (true) {
+                    if (_current == null) {
+                        if (_next == chunks.size()) {
+                            return -1;
+                        }
+                        String chunk = chunks.get(_next);
+                        _next += 1;
+                        _current = ObjectStore.open(ObjectStore.CHUNK, chunk);
+                        if (_current == null) {
+                            throw Utils.error("Missing chunk %s.", chunk);
+                        }
+                    }
+                    int n = _current.read(buffer, off, len);
+                    if (n > 0 || len == 0) {
+                        return n;
+                    }
+                    _current.close();
+                    _current = null;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (_current != null) {
+                    _current.close();
+                    _current = null;
+                }
+            }
+
+            /** The chunk being read, or null between chunks. **/
+            private InputStream _current;
+            /** Index of the next chunk to open. **/
+            private int _next;
+        };
+        return new ObjectStore.ObjectStream(in, ObjectStore.BLOB, length,
+                list);
+    }
+
+    /** Find the chunk boundaries of a file.
+     * @param channel the open file.
+     * @param length the size of the file.
+     * @return the end offset of every chunk, in order.
+     * @throws IOException on failure.
+     * **/
+    static long[] split(FileChannel channel, long length)
+            throws IOException {
+        ArrayList<Long> ends = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(Utils.BUFFER_SIZE);
+        long start = 0;
+        long hash = 0;
+        long pos = 0;
+        while (pos < length) {
+            buffer.clear();
+            int n = channel.read(buffer, pos);
+            if (n <= 0) {
+                throw Utils.error("File changed while being stored.");
+            }
+            byte[] data = buffer.array();
+            for (int i = 0; i < n; i += 1) {
+                hash = (hash << 1) + GEAR[data[i] & 0xff];
+                long size = pos + i + 1 - start;
+                if (size >= MAX_SIZE
+                        || (size >= MIN_SIZE && (hash & MASK) == 0)) {
+                    start = pos + i + 1;
+                    ends.add(start);
+                    hash = 0;
+                }
+            }
+            pos += n;
+        }
+        if (start < length) {
+            ends.add(length);
+        }
+        return ends.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /** Hash chunk I of a file and store it unless it is already stored.
+     * @param channel the open file.
+     * @param ends the end offset of every chunk.
+     * @param i the chunk number.
+     * @return the chunk id.
+     * **/
+    private static String storeChunk(FileChannel channel, long[] ends,
+                                     int i) {
+        long start = i == 0 ? 0 : ends[i - 1];
+        ByteBuffer buffer = ByteBuffer.allocate((int) (ends[i] - start));
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    throw Utils.error("File changed while being stored.");
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] data = buffer.array();
+        String id = Utils.sha1("chunk " + data.length + "\0", data);
+        if (!ObjectStore.contains(ObjectStore.CHUNK, id)) {
+            ObjectStore.write(ObjectStore.CHUNK, id, data);
+        }
+        return id;
+    }
+
+    /** Build the table of random numbers of the gear hash, the same on
+     * every run, with the splitmix64 generator.
+     * @return the table.
+     * **/
+    private static long[] gearTable() {
+        long[] table = new long[256];
+        long state = 0x6A09E667F3BCC908L;
+        for (int i = 0; i < table.length; i += 1) {
+            state += 0x9E3779B97F4A7C15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            table[i] = z ^ (z >>> 31);
+        }
+        return table;
+    }
+
+    /** Files of at least this many bytes are chunked; set with the
+     * gitlet.chunkThreshold system property, 8 MB by default. **/
+    static final long THRESHOLD = Long.getLong("gitlet.chunkThreshold",
+            8L << 20);
+    /** Smallest chunk, except for the last one. **/
+    static final int MIN_SIZE = 16 << 10;
+    /** Largest chunk. **/
+    static final int MAX_SIZE = 256 << 10;
+    /** A boundary is placed where these bits of the hash are clear. **/
+    private static final long MASK = 0xFFFFL << 48;
+    /** Random number of every byte value, for the gear hash. **/
+    private static final long[] GEAR = gearTable();
+}
@@ -0,0 +1,58 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Random;
+
+/** Unit test for content-defined chunking.
+ * @author Vinh Bui
+ * **/
+public class ChunkerUnitTest {
+    private final File _file = new File("testing/chunks.bin");
+
+    /** Split CONTENT into chunks.
+     * @param content the content.
+     * @return the sizes of the chunks.
+     * **/
+    private long[] sizes(byte[] content) throws IOException {
+        Utils.writeContents(_file, content);
+        try (FileChannel channel = FileChannel.open(_file.toPath(),
+                StandardOpenOption.READ)) {
+            long[] ends = Chunker.split(channel, content.length);
+            long[] sizes = new long[ends.length];
+            for (int i = 0; i < ends.length; i += 1) {
+                sizes[i] = ends[i] - (i == 0 ? 0 : ends[i - 1]);
+                assertTrue(sizes[i] <= Chunker.MAX_SIZE);
+            }
+            assertEquals(content.length, ends[ends.length - 1]);
+            return sizes;
+        }
+    }
+
+    @Test
+    public void testInsertionOnlyChangesNearbyChunks() throws IOException {
+        byte[] content = new byte[4 << 20];
+        new Random(42).nextBytes(content);
+        byte[] changed = new byte[content.length + 3];
+        int at = content.length / 2;
+        System.arraycopy(content, 0, changed, 0, at);
+        System.arraycopy(content, at, changed, at + 3, content.length - at);
+        long[] before = sizes(content);
+        long[] after = sizes(changed);
+        HashSet<Long> old = new HashSet<>();
+        for (long size : before) {
+            old.add(size);
+        }
+        int shared = 0;
+        for (long size : after) {
+            shared += old.contains(size) ? 1 : 0;
+        }
+        assertTrue(before.length > 10);
+        assertTrue(shared >= after.length - 2);
+    }
+}
@@ -1,16 +1,28 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.Serializable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.Date;
 
 /** This class represent the structure of a commit.
+ * A commit points at the Tree of the working directory. Commits written
+ * before trees, and the initial commit, hold a flat mapping from file
+ * name to blob id instead.
+ * Commits are kept in the ObjectStore, encoded by hand (see encode()).
+ * Commits written with Java serialization by the first version are
+ * still read, through Legacy.
  * @author Vinh Bui
  * **/
-public class Commit implements Serializable {
+public class Commit {
 
     /** Create default commit with timestamp 0. Used for initial commit. **/
     Commit() {
@@ -18,9 +30,8 @@ public class Commit implements Serializable {
         _author = "Vinh-The Author";
         _message = "initial commit";
         _blobs = new HashMap<>();
-        _parent = null;
-        _id = Utils.sha1(getAuthor(), getMessage(),
-                getDate().toString(), getBlobs().toString());
+        _parentId = null;
+        _id = computeId();
     }
 
     /** Create new commit with metadata copied from parent commit.
@@ -30,20 +41,79 @@ public class Commit implements Serializable {
      * @param message the custom message of commit
      * **/
     Commit(Commit parent, String author, String message) {
+        this._parentId = parent.getId();
         this._parent = parent;
         this.setAuthor(author);
-        this._blobs = new HashMap<>();
-        HashMap<String, String> parentBlobs = parent.getBlobs();
-        if (parent.getBlobs().size() > 0) {
-            for (String key: parentBlobs.keySet()) {
-                _blobs.put(key, parentBlobs.get(key));
-            }
+        if (parent._treeId != null) {
+            _treeId = parent._treeId;
+        } else {
+            _blobs = new HashMap<>(parent.getBlobs());
         }
-        this._mergedParent = getParent()._mergedParent;
+        this._mergedParentId = parent._mergedParentId;
         this.setMessage(message);
         this._date = new Date();
-        _id = Utils.sha1(getAuthor(), getMessage(),
-                getDate().toString(), getBlobs().toString());
+        _id = computeId();
+    }
+
+    /** Copy a commit with new blob ids and parent ids. Used by migrate.
+     * @param old the commit to copy.
+     * @param blobs the blob mapping of the copy.
+     * @param parentId id of the parent of the copy.
+     * @param mergedParentId id of the merged parent of the copy.
+     * **/
+    Commit(Commit old, HashMap<String, String> blobs, String parentId,
+           String mergedParentId) {
+        _author = old.getAuthor();
+        _message = old.getMessage();
+        _date = old.getDate();
+        _blobs = blobs;
+        _parentId = parentId;
+        _mergedParentId = mergedParentId;
+        _id = computeId();
+    }
+
+    /** Rebuild a commit written by the first version, keeping its id.
+     * @param id the id of the commit.
+     * @param date the date of the commit.
+     * @param author the author.
+     * @param message the message.
+     * @param blobs the blob mapping.
+     * @param parentId id of the parent, or null.
+     * @param mergedParentId id of the merged parent, or null.
+     * **/
+    Commit(String id, Date date, String author, String message,
+           HashMap<String, String> blobs, String parentId,
+           String mergedParentId) {
+        _id = id;
+        _date = date;
+        _author = author;
+        _message = message;
+        _blobs = blobs;
+        _parentId = parentId;
+        _mergedParentId = mergedParentId;
+    }
+
+    /** Decode a commit written by encode().
+     * @param in the encoded commit.
+     * @throws IOException if the data is malformed.
+     * **/
+    private Commit(DataInputStream in) throws IOException {
+        _id = readString(in);
+        _date = new Date(in.readLong());
+        _author = readString(in);
+        _message = readString(in);
+        _parentId = readString(in);
+        _mergedParentId = readString(in);
+        int size = in.readInt();
+        if (size < 0) {
+            _treeId = readString(in);
+            return;
+        }
+        _blobs = new HashMap<>();
+        for (int i = 0; i < size; i += 1) {
+            String name = readString(in);
+            _blobs.put(name, readString(in));
+        }
     }
 
     /** The default path for commit.
@@ -53,42 +123,73 @@ public class Commit implements Serializable {
         return _folderPath;
     }
 
-    /** Perform commit by updating blobs array according to staged for add
-     * and removal.
+    /** Perform commit by updating the tree according to staged for add
+     * and removal. Only the trees on the paths of the staged files are
+     * read and rewritten.
      * @param stagedAdd files ready for tracking
      * @param stageRemove files ready for untracking
      * @return object of current commit
      * **/
     public Commit doCommit(Set<String> stagedAdd,
                            Set<String> stageRemove) {
+        return doCommit(stagedAdd, stageRemove, new HashMap<>());
+    }
+
+    /** Save the commit, taking the blobs of some staged files from KNOWN
+     * instead of the working directory, for files a merge chose without
+     * writing them out.
+     * @param stagedAdd files ready for tracking
+     * @param stageRemove files ready for untracking
+     * @param known mapping from file name to the id of a stored blob
+     * @return object of current commit
+     * **/
+    public Commit doCommit(Set<String> stagedAdd, Set<String> stageRemove,
+                           Map<String, String> known) {
+        HashMap<String, String> changes = new HashMap<>();
         for (String filename : stagedAdd) {
+            if (known.containsKey(filename)) {
+                changes.put(filename, known.get(filename));
+                continue;
+            }
             String filePath = System.getProperty("user.dir") + "/" + filename;
-            String content = Utils.readContentsAsString(new File(filePath));
-            Blob blob = new Blob(filename, content);
-            if (_blobs.containsKey(filename)) {
-                String savedID = getBlobs().get(filename);
-                if (blob.getId().equals(savedID)) {
-                    continue;
-                }
+            Blob blob = new Blob(filename, new File(filePath));
+            if (blob.getId().equals(getBlobId(filename))) {
+                continue;
             }
             blob.toFile();
-            _blobs.put(filename, blob.getId());
+            changes.put(filename, blob.getId());
         }
         for (String filename : stageRemove) {
-            if (_blobs.containsKey(filename)) {
-                _blobs.remove(filename);
-            }
+            changes.put(filename, null);
         }
+        if (_treeId == null) {
+            HashMap<String, String> all = new HashMap<>(_blobs);
+            all.putAll(changes);
+            all.values().removeIf(Objects::isNull);
+            _treeId = Tree.update(null, all);
+        } else {
+            _treeId = Tree.update(_treeId, changes);
+        }
+        _blobs = null;
+        _id = computeId();
         toFile();
         return this;
     }
 
+    /** Compute the id of the commit from its metadata and its snapshot.
+     * @return the id.
+     * **/
+    private String computeId() {
+        return Utils.sha1(getAuthor(), getMessage(), getDate().toString(),
+                _treeId != null ? _treeId : _blobs.toString());
+    }
+
     /** Load commit instance from file.
      * @param file to the destination
      * @return a commit instance.
      * **/
     public static Commit fromFile(File file) {
-        return Utils.readObject(file, Commit.class);
+        return fromFile(ObjectStore.idOf(file));
     }
 
     /** Load commit instance from file.
@@ -96,8 +197,89 @@ public class Commit implements Serializable {
      * @return a commit instance.
      * **/
     public static Commit fromFile(String id) {
-        File file = new File(_folderPath + "/" + id + ".commit");
-        return Utils.readObject(file, Commit.class);
+        byte[] data = ObjectStore.read(ObjectStore.COMMIT, id);
+        if (data == null) {
+            throw Utils.error("No commit with id %s.", id);
+        }
+        return decode(data);
+    }
+
+    /** Encode this commit in the binary commit format: the id, the date,
+     * the author, the message, both parent ids and either -1 and the tree
+     * id or the size and entries of the blob mapping.
+     * Strings are written as a length followed by UTF-8 bytes, with a
+     * length of -1 for null.
+     * @return the encoded commit.
+     * **/
+    byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, _id);
+            out.writeLong(_date.getTime());
+            writeString(out, _author);
+            writeString(out, _message);
+            writeString(out, _parentId);
+            writeString(out, _mergedParentId);
+            if (_treeId != null) {
+                out.writeInt(-1);
+                writeString(out, _treeId);
+            } else {
+                out.writeInt(_blobs.size());
+                for (Map.Entry<String, String> blob : _blobs.entrySet()) {
+                    writeString(out, blob.getKey());
+                    writeString(out, blob.getValue());
+                }
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error serializing commit.");
+        }
+    }
+
+    /** Decode a commit written by encode().
+     * @param data the encoded commit.
+     * @return the commit.
+     * **/
+    static Commit decode(byte[] data) {
+        try {
+            return new Commit(new DataInputStream(
+                    new ByteArrayInputStream(data)));
+        } catch (IOException excp) {
+            throw Utils.error("Corrupted commit.");
+        }
+    }
+
+    /** Write a nullable string.
+     * @param out the stream to write to.
+     * @param value the string.
+     * @throws IOException on failure.
+     * **/
+    private static void writeString(DataOutputStream out,
+                                    String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Read a string written by writeString.
+     * @param in the stream to read from.
+     * @return the string, possibly null.
+     * @throws IOException on failure.
+     * **/
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
     }
 
     /** Set default saved folder.
@@ -128,20 +310,13 @@ public class Commit implements Serializable {
         return Objects.hash(_id);
     }
 
-    /** Serialize this instance into file. The filename is sha1 generated by
-     * combining author, message, timestamp, and blobs.
+    /** Encode this instance into file. The filename is sha1 generated by
+     * combining author, message, timestamp, and blobs. The message is
+     * also added to the message index.
      * **/
     public void toFile() {
-        String filename = getFolderPath() + "/" + buildCommitName(getId());
-        Utils.writeObject(new File(filename), this);
-    }
-
-    /** A helper to add tail.
-     * @param filename the id of the commit.
-     * @return id with extension commit.
-     * **/
-    private String buildCommitName(String filename) {
-        return filename + ".commit";
+        ObjectStore.write(ObjectStore.COMMIT, getId(), encode());
+        MessageIndex.add(getId(), _message);
     }
 
     /** The name of the author.
@@ -172,13 +347,35 @@ public class Commit implements Serializable {
         this._message = message;
     }
 
-    /** Hashmap of blobs, which are files.
+    /** Hashmap of blobs, which are files, by path. The tree is only
+     * flattened the first time this is called.
      * @return the list of blobs.
      * **/
     public HashMap<String, String> getBlobs() {
+        if (_blobs == null) {
+            _blobs = Tree.flatten(_treeId);
+        }
         return _blobs;
     }
 
+    /** Find the blob of one file without flattening the tree.
+     * @param path path of the file.
+     * @return the blob id, or null if the commit does not track it.
+     * **/
+    public String getBlobId(String path) {
+        if (_blobs != null) {
+            return _blobs.get(path);
+        }
+        return Tree.lookup(_treeId, path);
+    }
+
+    /** Id of the tree of the working directory.
+     * @return the tree id, or null for a commit with a flat mapping.
+     * **/
+    public String getTreeId() {
+        return _treeId;
+    }
+
     /** ID of the commit.
      * @return get id of the blob.
      * **/
@@ -186,13 +383,24 @@ public class Commit implements Serializable {
         return _id;
     }
 
-    /** Previous commit.
+    /** Previous commit. The parent is only loaded from disk the first
+     * time a walk reaches it.
      * @return get the parent commit.
      * **/
     public Commit getParent() {
+        if (_parent == null && _parentId != null) {
+            _parent = fromFile(_parentId);
+        }
         return _parent;
     }
 
+    /** Id of the previous commit.
+     * @return the parent id, or null for the initial commit.
+     * **/
+    public String getParentId() {
+        return _parentId;
+    }
+
     /** The date of when the commit was made.
      * @return get the date commit was made.
      * **/
@@ -212,27 +420,48 @@ public class Commit implements Serializable {
     /** The message commit. **/
     private String _message;
 
-    /** Manage the hashmap to the backup of files. **/
+    /** Manage the hashmap to the backup of files. Flattened lazily from
+     * the tree. **/
     private HashMap<String, String> _blobs;
 
-    /** Previous commit. **/
+    /** Id of the tree of the working directory, or null. **/
+    private String _treeId;
+
+    /** Id of the previous commit. **/
+    private String _parentId;
+
+    /** Previous commit, loaded lazily from _parentId. **/
     private Commit _parent;
 
-    /** Getter method for merged parent.
+    /** Getter method for merged parent. Loaded lazily like the parent.
      * @return merged parent commit.
      * **/
     public Commit getMergedParent() {
+        if (_mergedParent == null && _mergedParentId != null) {
+            _mergedParent = fromFile(_mergedParentId);
+        }
         return _mergedParent;
     }
 
+    /** Id of the merged parent.
+     * @return the merged parent id, or null if there is none.
+     * **/
+    public String getMergedParentId() {
+        return _mergedParentId;
+    }
+
     /** Setter method for merged parent.
      * @param mergedParent the merged parent
      * **/
     public void setMergedParent(Commit mergedParent) {
         this._mergedParent = mergedParent;
+        this._mergedParentId = mergedParent.getId();
     }
 
-    /** The commit that merged into this commit. **/
+    /** Id of the commit that merged into this commit. **/
+    private String _mergedParentId = null;
+
+    /** The commit that merged into this commit, loaded lazily. **/
     private Commit _mergedParent = null;
 
     /** Store the commit folder. **/
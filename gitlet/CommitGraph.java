@@ -0,0 +1,437 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/** The shape of the commit history: the parents and the generation
+ * number of every commit. The generation of a root commit is 1 and that
+ * of any other commit is one more than the largest generation of its
+ * parents, so a commit can only reach commits of lower generations.
+ * The graph is kept in .gitlet/commit-graph, which is memory-mapped:
+ * a magic number, a version and the number of commits, a fan-out table
+ * of 256 cumulative counts by first id byte, then one entry per commit in
+ * id order, made of the binary id, the entry numbers of its parents (-1
+ * for none) and its generation. Commits made since the file was written
+ * are read from the object store as they are needed. Since commits never
+ * change, the file is never wrong, only possibly incomplete; it is
+ * rewritten by repack and gc, and by a merge that had to read many
+ * commits that were not in it.
+ * @author Vinh Bui
+ * **/
+class CommitGraph {
+
+    /** Open the commit graph of the repository, if there is one. **/
+    CommitGraph() {
+        File file = graphFile();
+        if (!file.isFile()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            MappedByteBuffer data = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (data.getInt(0) == MAGIC && data.getInt(4) == VERSION) {
+                _data = data;
+            }
+        } catch (IOException excp) {
+            _data = null;
+        }
+    }
+
+    /** Find the best common ancestor of two commits: a commit that both
+     * reach and that is not an ancestor of another such commit. Both
+     * parents of merge commits are followed. The walk paints the
+     * ancestors of each side in order of decreasing generation and stops
+     * once the commits left to visit that are not ancestors of a common
+     * ancestor already found are all reached from the same side, since
+     * no new common ancestor can come from them. When there are several
+     * best common ancestors, the one with the highest generation, then
+     * the smallest id, is taken.
+     * A commit is only queued once: every child of a commit has a higher
+     * generation and is visited first, so its flags are final by the
+     * time it leaves the queue.
+     * @param first one commit id.
+     * @param second the other commit id.
+     * @return the id of the common ancestor, or null if there is none.
+     * **/
+    String mergeBase(String first, String second) {
+        if (first.equals(second)) {
+            return first;
+        }
+        HashMap<String, Integer> flags = new HashMap<>();
+        PriorityQueue<String> queue = new PriorityQueue<>(byGeneration());
+        flags.put(first, FIRST);
+        flags.put(second, SECOND);
+        queue.add(first);
+        queue.add(second);
+        int[] active = {0, 0};
+        count(active, FIRST, 1);
+        count(active, SECOND, 1);
+        ArrayList<String> found = new ArrayList<>();
+        while (active[0] > 0 && active[1] > 0) {
+            String id = queue.poll();
+            int flag = flags.get(id);
+            count(active, flag, -1);
+            if (flag == BOTH) {
+                found.add(id);
+                flag |= STALE;
+            }
+            for (String parent : info(id)._parents) {
+                int old = flags.getOrDefault(parent, 0);
+                int painted = old | flag;
+                if (painted == old) {
+                    continue;
+                }
+                flags.put(parent, painted);
+                if (old == 0) {
+                    queue.add(parent);
+                } else {
+                    count(active, old, -1);
+                }
+                count(active, painted, 1);
+            }
+        }
+        return best(found);
+    }
+
+    /** Count a queued commit with flags FLAG among those still able to
+     * lead to a new common ancestor: a commit that is not stale, for each
+     * side that reaches it.
+     * @param active the number of such commits reached from each side.
+     * @param flag the flags of the commit.
+     * @param delta 1 when it is queued, -1 when it leaves the queue.
+     * **/
+    private static void count(int[] active, int flag, int delta) {
+        if ((flag & STALE) == 0) {
+            if ((flag & FIRST) != 0) {
+                active[0] += delta;
+            }
+            if ((flag & SECOND) != 0) {
+                active[1] += delta;
+            }
+        }
+    }
+
+    /** Return the generation of a commit.
+     * @param id the commit id.
+     * @return its generation.
+     * **/
+    int generation(String id) {
+        return info(id)._generation;
+    }
+
+    /** Return the number of commits read from the object store because
+     * they were not in the file. **/
+    int missing() {
+        return _extra.size();
+    }
+
+    /** Write the graph of every commit reachable from TIPS, reusing the
+     * entries of the current file for the commits it already holds.
+     * @param tips the ids of the branch heads.
+     * **/
+    static void write(Collection<String> tips) {
+        CommitGraph old = new CommitGraph();
+        TreeMap<String, Info> all = new TreeMap<>();
+        ArrayDeque<String> pending = new ArrayDeque<>(tips);
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            if (!all.containsKey(id)) {
+                Info info = old.info(id);
+                all.put(id, info);
+                for (String parent : info._parents) {
+                    pending.push(parent);
+                }
+            }
+        }
+        HashMap<String, Integer> entries = new HashMap<>();
+        for (String id : all.keySet()) {
+            entries.put(id, entries.size());
+        }
+        File temp = null;
+        try {
+            File file = graphFile();
+            temp = File.createTempFile("graph", ".tmp",
+                    file.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(
+                            temp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(all.size());
+                int[] fanout = new int[FANOUT_SIZE];
+                for (String id : all.keySet()) {
+                    fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+                }
+                int total = 0;
+                for (int count : fanout) {
+                    total += count;
+                    out.writeInt(total);
+                }
+                for (Map.Entry<String, Info> e : all.entrySet()) {
+                    out.write(Pack.toBytes(e.getKey()));
+                    String[] parents = e.getValue()._parents;
+                    for (int i = 0; i < 2; i += 1) {
+                        out.writeInt(i < parents.length
+                                ? entries.get(parents[i]) : -1);
+                    }
+                    out.writeInt(e.getValue()._generation);
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /** Pick the best of the common ancestors found by the walk, dropping
+     * those that another one reaches.
+     * @param found the common ancestors, none of them below another one
+     *              found earlier.
+     * @return the chosen one, or null if FOUND is empty.
+     * **/
+    private String best(List<String> found) {
+        String result = null;
+        for (String id : found) {
+            boolean redundant = false;
+            for (String other : found) {
+                if (!other.equals(id) && reaches(other, id)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant && (result == null
+                    || byGeneration().compare(id, result) < 0)) {
+                result = id;
+            }
+        }
+        return result;
+    }
+
+    /** Check whether FROM reaches TO, never walking below TO's
+     * generation.
+     * @param from the descendant candidate.
+     * @param to the ancestor candidate.
+     * @return true if TO is an ancestor of FROM.
+     * **/
+    private boolean reaches(String from, String to) {
+        int floor = generation(to);
+        ArrayDeque<String> pending = new ArrayDeque<>();
+        HashMap<String, Boolean> seen = new HashMap<>();
+        pending.push(from);
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            if (id.equals(to)) {
+                return true;
+            }
+            if (seen.put(id, true) != null || generation(id) <= floor) {
+                continue;
+            }
+            for (String parent : info(id)._parents) {
+                pending.push(parent);
+            }
+        }
+        return false;
+    }
+
+    /** Order commits by decreasing generation, then by id.
+     * @return the comparator.
+     * **/
+    private Comparator<String> byGeneration() {
+        return Comparator.<String>comparingInt(this::generation).reversed()
+                .thenComparing(Comparator.naturalOrder());
+    }
+
+    /** Return the parents and generation of a commit, from the file or,
+     * for the commits it lacks, from the object store. The generations of
+     * missing commits are computed without recursion, so that a long
+     * history outside the file cannot overflow the stack.
+     * @param id the commit id.
+     * @return the information.
+     * **/
+    private Info info(String id) {
+        Info info = lookup(id);
+        if (info != null) {
+            return info;
+        }
+        ArrayDeque<String> pending = new ArrayDeque<>();
+        pending.push(id);
+        while (!pending.isEmpty()) {
+            String next = pending.peek();
+            Info current = _extra.get(next);
+            if (current == null) {
+                Commit commit = Commit.fromFile(next);
+                ArrayList<String> parents = new ArrayList<>();
+                if (commit.getParentId() != null) {
+                    parents.add(commit.getParentId());
+                }
+                if (commit.getMergedParentId() != null) {
+                    parents.add(commit.getMergedParentId());
+                }
+                current = new Info(parents.toArray(new String[0]), 0);
+                _extra.put(next, current);
+            }
+            int generation = 0;
+            boolean ready = true;
+            for (String parent : current._parents) {
+                Info known = lookup(parent);
+                if (known == null || known._generation == 0) {
+                    ready = false;
+                    if (known == null) {
+                        pending.push(parent);
+                    }
+                } else {
+                    generation = Math.max(generation, known._generation);
+                }
+            }
+            if (ready) {
+                current._generation = generation + 1;
+                pending.pop();
+            }
+        }
+        return _extra.get(id);
+    }
+
+    /** Find a commit in the file or among the commits already read.
+     * @param id the commit id.
+     * @return its information, or null if it was not read yet.
+     * **/
+    private Info lookup(String id) {
+        Info info = _extra.get(id);
+        if (info != null) {
+            return info;
+        }
+        int entry = find(id);
+        if (entry < 0) {
+            return null;
+        }
+        int pos = entryPosition(entry);
+        ArrayList<String> parents = new ArrayList<>();
+        for (int i = 0; i < 2; i += 1) {
+            int parent = _data.getInt(pos + ID_SIZE + 4 * i);
+            if (parent >= 0) {
+                parents.add(idAt(parent));
+            }
+        }
+        return new Info(parents.toArray(new String[0]),
+                _data.getInt(pos + ID_SIZE + 8));
+    }
+
+    /** Binary search the file for a commit.
+     * @param id the commit id.
+     * @return its entry number, or -1 if it is absent.
+     * **/
+    private int find(String id) {
+        if (_data == null || id.length() != Utils.UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = Pack.toBytes(id);
+        int first = key[0] & 0xff;
+        int low = first == 0 ? 0 : _data.getInt(FANOUT_START
+                + 4 * (first - 1));
+        int high = _data.getInt(FANOUT_START + 4 * first) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int pos = entryPosition(mid);
+            int cmp = 0;
+            for (int i = 0; i < ID_SIZE && cmp == 0; i += 1) {
+                cmp = (_data.get(pos + i) & 0xff) - (key[i] & 0xff);
+            }
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the id of an entry of the file.
+     * @param entry the entry number.
+     * **/
+    private String idAt(int entry) {
+        byte[] id = new byte[ID_SIZE];
+        _data.get(entryPosition(entry), id);
+        return Pack.toHex(id);
+    }
+
+    /** Return the position of an entry in the file.
+     * @param entry the entry number.
+     * **/
+    private static int entryPosition(int entry) {
+        return ENTRIES_START + entry * ENTRY_SIZE;
+    }
+
+    /** Return the commit graph file. **/
+    private static File graphFile() {
+        return new File(Gitlet.getDefaultFolder() + "/commit-graph");
+    }
+
+    /** The parents and generation of one commit. **/
+    private static class Info {
+        /** Create the information of a commit.
+         * @param parents the parent ids, first parent first.
+         * @param generation the generation, or 0 if not known yet.
+         * **/
+        Info(String[] parents, int generation) {
+            _parents = parents;
+            _generation = generation;
+        }
+
+        /** The parent ids. **/
+        private final String[] _parents;
+        /** The generation, or 0 while it is being computed. **/
+        private int _generation;
+    }
+
+    /** Walk flag of the ancestors of the first commit. **/
+    private static final int FIRST = 1;
+    /** Walk flag of the ancestors of the second commit. **/
+    private static final int SECOND = 2;
+    /** Both walk flags. **/
+    private static final int BOTH = FIRST | SECOND;
+    /** Walk flag of the ancestors of a common ancestor found. **/
+    private static final int STALE = 4;
+    /** Magic number at the start of the file, "GLCG". **/
+    private static final int MAGIC = 0x474C4347;
+    /** Current version of the file. **/
+    private static final int VERSION = 1;
+    /** Length of a binary id. **/
+    private static final int ID_SIZE = 20;
+    /** Number of entries of the fan-out table. **/
+    private static final int FANOUT_SIZE = 256;
+    /** Position of the fan-out table. **/
+    private static final int FANOUT_START = 12;
+    /** Position of the first entry. **/
+    private static final int ENTRIES_START = FANOUT_START + 4 * FANOUT_SIZE;
+    /** Size of an entry: id, two parents and the generation. **/
+    private static final int ENTRY_SIZE = ID_SIZE + 4 * 3;
+    /** The mapped file, or null if there is none. **/
+    private MappedByteBuffer _data;
+    /** Commits read from the object store, by id. **/
+    private final HashMap<String, Info> _extra = new HashMap<>();
+}
@@ -0,0 +1,63 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.util.Arrays;
+
+/** Unit test for the commit graph.
+ * @author Vinh Bui
+ * **/
+public class CommitGraphUnitTest {
+
+    /** Store a commit.
+     * @param parent the first parent.
+     * @param merged the second parent, or null.
+     * @param message the message.
+     * @return the commit.
+     * **/
+    private Commit commit(Commit parent, Commit merged, String message) {
+        Commit commit = new Commit(parent, "Unit Test", message);
+        if (merged != null) {
+            commit.setMergedParent(merged);
+        }
+        commit.toFile();
+        return commit;
+    }
+
+    @Test
+    public void testMergeBaseFollowsMergeCommits() {
+        Gitlet.setDefaultFolder("testing/graph-gitlet");
+        Commit root = new Commit();
+        root.toFile();
+        Commit a = commit(root, null, "a");
+        Commit b = commit(root, null, "b");
+        Commit a2 = commit(a, b, "a2");
+        Commit b2 = commit(b, null, "b2");
+        CommitGraph graph = new CommitGraph();
+        assertEquals(b.getId(), graph.mergeBase(a2.getId(), b2.getId()));
+        assertEquals(b.getId(), graph.mergeBase(b2.getId(), a2.getId()));
+        assertEquals(a.getId(), graph.mergeBase(a.getId(), a2.getId()));
+        assertEquals(1, graph.generation(root.getId()));
+        assertEquals(3, graph.generation(a2.getId()));
+    }
+
+    @Test
+    public void testWrittenGraphGivesSameAnswers() {
+        Gitlet.setDefaultFolder("testing/graph-gitlet");
+        Commit root = new Commit();
+        root.toFile();
+        Commit a = commit(root, null, "left");
+        Commit b = commit(root, null, "right");
+        Commit x = commit(a, b, "criss");
+        Commit y = commit(b, a, "cross");
+        Commit x2 = commit(x, null, "left again");
+        CommitGraph.write(Arrays.asList(x2.getId(), y.getId()));
+        CommitGraph graph = new CommitGraph();
+        String base = graph.mergeBase(x2.getId(), y.getId());
+        assertTrue(base.equals(a.getId()) || base.equals(b.getId()));
+        assertEquals(base, new CommitGraph().mergeBase(y.getId(),
+                x2.getId()));
+        assertEquals(0, graph.missing());
+        assertEquals(4, graph.generation(x2.getId()));
+    }
+}
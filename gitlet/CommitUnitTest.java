@@ -19,8 +19,8 @@ public class CommitUnitTest {
         Commit initCommit = new Commit();
         Commit.setFolderPath(_commitFolder);
         initCommit.toFile();
-        file = new File(_commitFolder + "/"
-                + initCommit.getId() + ".commit");
+        file = ObjectStore.loosePath(ObjectStore.COMMIT,
+                initCommit.getId());
         assertTrue(file.exists());
     }
 
@@ -39,7 +39,7 @@ public class CommitUnitTest {
         stagedForAdd.add("a.txt");
         Blob.setDefaultFolder(_blobFolder);
         commit.doCommit(stagedForAdd, new LinkedHashSet<>());
-        file = new File(_commitFolder + "/" + commit.getId() + ".commit");
+        file = ObjectStore.loosePath(ObjectStore.COMMIT, commit.getId());
         assertTrue(file.exists());
     }
 }
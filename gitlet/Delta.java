@@ -0,0 +1,196 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/** Binary deltas between two versions of a file.
+ * A delta starts with the lengths of the base and of the result, as
+ * varints, followed by instructions: COPY (offset, length) copies bytes
+ * of the base, INSERT (length, bytes) inserts literal bytes.
+ * Matches are found by indexing the base in aligned blocks of BLOCK
+ * bytes and looking up every block-sized window of the target.
+ * @author Vinh Bui
+ * **/
+class Delta {
+
+    /** Compute a delta that turns BASE into TARGET.
+     * @param base the base content.
+     * @param target the content to encode.
+     * @param limit give up once the delta grows past this many bytes.
+     * @return the delta, or null if it would be longer than LIMIT.
+     * **/
+    static byte[] create(byte[] base, byte[] target, int limit) {
+        int blocks = base.length / BLOCK;
+        int mask = Integer.highestOneBit(Math.max(1, 2 * blocks)) * 2 - 1;
+        int[] table = new int[mask + 1];
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            int slot = hash(base, i) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        int inserted = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            int match = blocks == 0 ? -1 : lookup(table, mask, base,
+                    target, i);
+            if (match < 0) {
+                i += 1;
+                continue;
+            }
+            int start = match;
+            int targetStart = i;
+            while (start > 0 && targetStart > inserted
+                    && base[start - 1] == target[targetStart - 1]) {
+                start -= 1;
+                targetStart -= 1;
+            }
+            int end = match + BLOCK;
+            int targetEnd = i + BLOCK;
+            while (end < base.length && targetEnd < target.length
+                    && base[end] == target[targetEnd]) {
+                end += 1;
+                targetEnd += 1;
+            }
+            insert(out, target, inserted, targetStart);
+            out.write(COPY);
+            writeVarint(out, start);
+            writeVarint(out, end - start);
+            inserted = targetEnd;
+            i = targetEnd;
+            if (out.size() > limit) {
+                return null;
+            }
+        }
+        insert(out, target, inserted, target.length);
+        if (out.size() > limit) {
+            return null;
+        }
+        return out.toByteArray();
+    }
+
+    /** Apply DELTA to BASE.
+     * @param base the base content.
+     * @param delta a delta created against BASE.
+     * @return the content encoded by the delta.
+     * **/
+    static byte[] apply(byte[] base, byte[] delta) {
+        ByteArrayInputStream in = new ByteArrayInputStream(delta);
+        if (readVarint(in) != base.length) {
+            throw Utils.error("Delta does not match its base.");
+        }
+        byte[] result = new byte[(int) readVarint(in)];
+        int pos = 0;
+        int op;
+        while ((op = in.read()) >= 0) {
+            if (op == COPY) {
+                int offset = (int) readVarint(in);
+                int length = (int) readVarint(in);
+                System.arraycopy(base, offset, result, pos, length);
+                pos += length;
+            } else if (op == INSERT) {
+                int length = (int) readVarint(in);
+                pos += in.readNBytes(result, pos, length);
+            } else {
+                throw Utils.error("Corrupted delta.");
+            }
+        }
+        if (pos != result.length) {
+            throw Utils.error("Corrupted delta.");
+        }
+        return result;
+    }
+
+    /** Find a block of BASE equal to the block of TARGET at POS.
+     * @param table the block index of BASE.
+     * @param mask the size of TABLE minus one.
+     * @param base the base content.
+     * @param target the target content.
+     * @param pos position in TARGET.
+     * @return the position of the block in BASE, or -1.
+     * **/
+    private static int lookup(int[] table, int mask, byte[] base,
+                              byte[] target, int pos) {
+        int slot = hash(target, pos) & mask;
+        while (table[slot] != 0) {
+            int candidate = table[slot] - 1;
+            if (Arrays.equals(base, candidate, candidate + BLOCK,
+                    target, pos, pos + BLOCK)) {
+                return candidate;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /** Hash the BLOCK bytes of DATA starting at POS.
+     * @param data the content.
+     * @param pos the start of the block.
+     * @return the hash.
+     * **/
+    private static int hash(byte[] data, int pos) {
+        int h = 0;
+        for (int i = pos; i < pos + BLOCK; i += 1) {
+            h = 31 * h + data[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /** Write an INSERT of the bytes of DATA from START to END, if any.
+     * @param out the delta.
+     * @param data the target content.
+     * @param start first byte to insert.
+     * @param end one past the last byte to insert.
+     * **/
+    private static void insert(ByteArrayOutputStream out, byte[] data,
+                               int start, int end) {
+        if (end > start) {
+            out.write(INSERT);
+            writeVarint(out, end - start);
+            out.write(data, start, end - start);
+        }
+    }
+
+    /** Write a non-negative number seven bits at a time.
+     * @param out the stream to write to.
+     * @param value the number.
+     * **/
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while (value >= 0x80) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Read a number written by writeVarint.
+     * @param in the stream to read from.
+     * @return the number.
+     * **/
+    private static long readVarint(ByteArrayInputStream in) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                throw Utils.error("Corrupted delta.");
+            }
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /** Instruction that copies bytes of the base. **/
+    private static final int COPY = 0;
+    /** Instruction that inserts literal bytes. **/
+    private static final int INSERT = 1;
+    /** Size of the blocks used to find matches. **/
+    private static final int BLOCK = 16;
+}
@@ -0,0 +1,43 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.util.Random;
+
+/** Unit test for binary deltas.
+ * @author Vinh Bui
+ * **/
+public class DeltaUnitTest {
+
+    @Test
+    public void testSmallEdit() {
+        byte[] base = new byte[100000];
+        new Random(61).nextBytes(base);
+        byte[] target = new byte[base.length + 10];
+        System.arraycopy(base, 0, target, 0, 5000);
+        System.arraycopy(base, 5000, target, 5010, base.length - 5000);
+        byte[] delta = Delta.create(base, target, target.length);
+        assertNotNull(delta);
+        assertTrue(delta.length < 100);
+        assertArrayEquals(target, Delta.apply(base, delta));
+    }
+
+    @Test
+    public void testUnrelatedContent() {
+        byte[] base = new byte[4096];
+        byte[] target = new byte[4096];
+        Random random = new Random(61);
+        random.nextBytes(base);
+        random.nextBytes(target);
+        assertNull(Delta.create(base, target, target.length / 2));
+        byte[] delta = Delta.create(base, target, 2 * target.length);
+        assertArrayEquals(target, Delta.apply(base, delta));
+    }
+
+    @Test
+    public void testEmptyBase() {
+        byte[] target = "Hello World!".getBytes();
+        byte[] delta = Delta.create(new byte[0], target, 100);
+        assertArrayEquals(target, Delta.apply(new byte[0], delta));
+    }
+}
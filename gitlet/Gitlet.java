@@ -1,18 +1,25 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.Serializable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
 import java.util.HashMap;
-import java.util.Formatter;
+import java.util.HashSet;
 import java.util.ArrayList;
-import java.util.LinkedHashSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 /** Main class to manage the gitlet.
  * There is only one instance of gitlet in the program.
  * @author Vinh Bui
  * **/
-public class Gitlet implements Serializable {
+public class Gitlet {
     /** Get the default location for gitlet.
      * @return default location.
      * **/
@@ -36,13 +43,16 @@ public class Gitlet implements Serializable {
         file.mkdir();
         file = new File(getDefaultFolder() + "/" + "branches");
         file.mkdir();
+        MessageIndex.create();
         Commit commit = new Commit();
+        commit.toFile();
         Branch master = new Branch("master", commit);
+        master.toFile();
+        Branch.setHead(master.getName());
         _main = new Gitlet();
-        _main._branches.put(master.getName(), master);
         _main._HEAD = master;
-        master.toFile();
-        _main.toFile();
+        _main._stage = StagingArea.create(indexFile());
+        Utils.writeContents(formatFile(), FORMAT + "\n");
     }
 
     /** Load the instance from file.
@@ -71,19 +81,21 @@ public class Gitlet implements Serializable {
             return;
         }
         HashMap<String, String> blobs = _main._HEAD.getCommit().getBlobs();
-        if (_main._stagedForRemove.contains(fileName)) {
-            _main._stagedForRemove.remove(fileName);
+        if (_main._stage.getStagedForRemove().contains(fileName)) {
+            _main._stage.unstage(fileName);
         }
         if (!blobs.containsKey(fileName)) {
-            _main._stagedForAdd.add(fileName);
+            if (ignore().matches(fileName)) {
+                System.out.println("File is ignored.");
+                return;
+            }
+            _main._stage.stageForAdd(fileName);
         } else {
-            String content = Utils.readContentsAsString(file);
-            String sha = Utils.sha1(fileName, content);
+            String sha = workingId(fileName);
             if (!sha.equals(blobs.get(fileName))) {
-                _main._stagedForAdd.add(fileName);
+                _main._stage.stageForAdd(fileName);
             }
         }
-        _main.toFile();
     }
 
     /** Add the file into staged for remove zone.
@@ -93,115 +105,130 @@ public class Gitlet implements Serializable {
     public void remove(String filename) {
         HashMap<String, String> blobs = _main._HEAD.getCommit().getBlobs();
         if (blobs.containsKey(filename)) {
-            _main._stagedForRemove.add(filename);
-            _main._stagedForAdd.remove(filename);
-            Utils.restrictedDelete(new File(filename));
-        } else if (_main._stagedForAdd.contains(filename)) {
-            _main._stagedForAdd.remove(filename);
+            _main._stage.stageForRemove(filename);
+            deleteWorkingFile(filename);
+        } else if (_main._stage.getStagedForAdd().contains(filename)) {
+            _main._stage.unstage(filename);
         } else {
             System.out.println("No reason to remove the file.");
         }
-        _main.toFile();
     }
 
-    /** Return the commit history from latest commit to initial commits. **/
-    public String log() {
-        Commit current = _main._HEAD.getCommit();
-        String log = "";
-        while (current != null) {
-            log = getLog(current, log, _form);
-            current = current.getParent();
+    /** Print the commit history from the latest commit back to the
+     * initial commit, following first parents. Each commit is read by id
+     * and dropped once printed, and the entries go through a buffer that
+     * is flushed every page, so the first page shows at once and memory
+     * does not grow with the history. The walk stops once FILTER is full,
+     * at the first commit older than its --since date, or when the output
+     * is closed.
+     * @param filter selects the commits to print.
+     * **/
+    public void log(LogFilter filter) {
+        PrintStream out = logStream();
+        String id = _main._HEAD.getCommitId();
+        int printed = 0;
+        while (id != null && !filter.full()) {
+            Commit commit = Commit.fromFile(id);
+            if (filter.before(commit)) {
+                break;
+            }
+            if (filter.accept(commit)) {
+                printLog(out, commit);
+                printed += 1;
+                if (printed % LOG_PAGE == 0 && closed(out)) {
+                    return;
+                }
+            }
+            id = commit.getParentId();
         }
-        System.out.print(log);
-        return log;
+        out.flush();
     }
 
-    /** Helper function for log.
-     * @param current the commit to get info.
-     * @param log the log to append to.
-     * @param form form for date formatting.
-     * @return new log after adding content.
+    /** Print one log entry.
+     * @param out the output.
+     * @param commit the commit.
      * **/
-    private String getLog(Commit current, String log, String form) {
-        Formatter formatter = new Formatter();
-        log += "===";
-        log += "\ncommit " + current.getId() + "\n";
-        if (current.getMergedParent() != null) {
-            String p1 = current.getParent().getId().substring(0, 7);
-            String p2 = current.getMergedParent().getId().substring(0, 7);
-            log += "Merge: " + p1 + " " + p2 + "\n";
+    private void printLog(PrintStream out, Commit commit) {
+        out.print("===\ncommit ");
+        out.print(commit.getId());
+        out.print('\n');
+        if (commit.getMergedParentId() != null) {
+            out.print("Merge: " + commit.getParentId().substring(0, 7)
+                    + " " + commit.getMergedParentId().substring(0, 7)
+                    + "\n");
         }
-        log += formatter.format(form, current.getDate());
-        log += "\n" + current.getMessage() + "\n\n";
-        return log;
+        out.format(_form, commit.getDate());
+        out.print('\n');
+        out.print(commit.getMessage());
+        out.print("\n\n");
+    }
+
+    /** Return a buffered stream over the standard output for log entries.
+     * Line breaks do not flush it. **/
+    private static PrintStream logStream() {
+        return new PrintStream(new BufferedOutputStream(System.out,
+                LOG_BUFFER_SIZE), false);
+    }
+
+    /** Flush a page of log entries and check whether the standard output
+     * was closed, for instance by a pager that quit.
+     * @param out the log stream.
+     * @return true if nothing more can be printed.
+     * **/
+    private static boolean closed(PrintStream out) {
+        out.flush();
+        return System.out.checkError();
     }
 
     /** Perform checkout function with latest backup of file.
      * @param fileName the name of the file
      * **/
     public void checkout(String fileName) {
-        if (_main._stagedForAdd.contains(fileName)) {
-            _main._stagedForAdd.remove(fileName);
-        }
-        if (_main._stagedForRemove.contains(fileName)) {
-            _main._stagedForRemove.remove(fileName);
-        }
+        _main._stage.unstage(fileName);
         Commit latest = _main._HEAD.getCommit();
         HashMap<String, String> blobs = latest.getBlobs();
         if (!blobs.containsKey(fileName)) {
             System.out.println("File does not exist in that commit.");
             return;
         } else {
-            String path = Gitlet.getDefaultFolder() + "/blobs/";
-            String id = blobs.get(fileName) + ".blob";
-            path += id;
-            File backupFile = new File(path);
-            Blob blob = Blob.fromFile(backupFile);
-            String filePath = getWorkingDir() + "/" + fileName;
-            File toFile = new File(filePath);
-            Utils.writeContents(toFile, blob.getContent());
+            writeBlob(fileName, blobs.get(fileName));
         }
-        _main.toFile();
     }
 
     /** Perform restore backup at a specific commit.
-     * @param id the id of the commit.
+     * @param id the id of the commit, possibly abbreviated.
      * @param fileName the name of the file.
      * **/
     public void checkoutWithCommitID(String id, String fileName) {
-        if (_main._stagedForAdd.contains(fileName)) {
-            _main._stagedForAdd.remove(fileName);
+        String commitId = resolveCommit(id);
+        if (commitId == null) {
+            return;
         }
-        if (_main._stagedForRemove.contains(fileName)) {
-            _main._stagedForRemove.remove(fileName);
+        HashMap<String, String> blobs = Commit.fromFile(commitId).getBlobs();
+        if (!blobs.containsKey(fileName)) {
+            System.out.println("File does not exist in that commit.");
+            return;
         }
-        Commit current = _main._HEAD.getCommit();
-        while (current != null) {
-            boolean isEqual = true;
-            String currentId = current.getId();
-            int length = Math.min(currentId.length(), id.length());
-            for (int i = 0; i < length; i++) {
-                if (id.charAt(i) != current.getId().charAt(i)) {
-                    isEqual = false;
-                    break;
-                }
-            }
-            if (isEqual) {
-                Commit commit = Commit.fromFile(currentId);
-                HashMap<String, String> blobs = commit.getBlobs();
-                if (!blobs.containsKey(fileName)) {
-                    System.out.println("File does not exist in that commit.");
-                    return;
-                }
-                Blob blob = Blob.fromFile(blobs.get(fileName));
-                String filePath = getWorkingDir() + "/" + fileName;
-                File toFile = new File(filePath);
-                Utils.writeContents(toFile, blob.getContent());
-                return;
-            }
-            current = current.getParent();
+        writeBlob(fileName, blobs.get(fileName));
+    }
+
+    /** Find the commit a possibly abbreviated id names, among all the
+     * commits of the repository, printing an error if there is none or
+     * more than one.
+     * @param prefix the id or a prefix of it.
+     * @return the whole commit id, or null.
+     * **/
+    private String resolveCommit(String prefix) {
+        List<String> ids = ObjectStore.withPrefix(ObjectStore.COMMIT,
+                prefix, 2);
+        if (ids.isEmpty()) {
+            System.out.println("No commit with that id exists.");
+            return null;
+        } else if (ids.size() > 1) {
+            System.out.println("Commit id " + prefix + " is ambiguous.");
+            return null;
         }
-        System.out.println("No commit with that id exists.");
+        return ids.get(0);
     }
 
     /** Switch to another branch.
@@ -210,60 +237,54 @@ public class Gitlet implements Serializable {
     public void checkoutBranch(String branchName) {
         if (_main._HEAD.getName().equals(branchName)) {
             System.out.println("No need to checkout the current branch.");
-        } else if (!_main._branches.containsKey(branchName)) {
+        } else if (!Branch.exists(branchName)) {
             System.out.println("No such branch exists.");
         } else {
             Commit cCommit = _main._HEAD.getCommit();
-            HashMap<String, String> currentBlobs = cCommit.getBlobs();
             Branch branch = Branch.fromFile(branchName);
-            HashMap<String, String> switchBlobs = branch.getCommit().getBlobs();
-            List<String> fileNames = Utils.plainFilenamesIn(getWorkingDir());
-            if (checkForUntracked(currentBlobs, switchBlobs, fileNames)) {
+            Map<String, String> changes = diffCommits(cCommit,
+                    branch.getCommit());
+            changes.keySet().removeIf(name -> !inSparse(name));
+            if (overwritesWork(cCommit, changes)) {
                 return;
             }
-            for (String fileName : currentBlobs.keySet()) {
-                if (!switchBlobs.containsKey(fileName)) {
-                    Utils.restrictedDelete(fileName);
-                }
-            }
-            for (String fileName : switchBlobs.keySet()) {
-                Utils.restrictedDelete(fileName);
-                Blob blob = Blob.fromFile(switchBlobs.get(fileName));
-                File file = new File(getWorkingDir() + "/" + fileName);
-                Utils.writeContents(file, blob.getContent());
-            }
+            applyChanges(changes);
             _main._HEAD = branch;
+            Branch.setHead(branchName);
         }
-        _main.toFile();
     }
 
     /**
      * Check for legal commit.
-     * @param currentBlobs the current tracked files.
-     * @param switchBlobs the incoming tracked files.
+     * @param current the commit checked out now.
+     * @param given the commit merged in.
      * @param fileNames list of file names in working the directory.
      * @return true if not legal, false otherwise.
      */
-    private boolean checkForUntracked(HashMap<String, String> currentBlobs,
-                                      HashMap<String, String> switchBlobs,
+    private boolean checkForUntracked(Commit current, Commit given,
                                       List<String> fileNames) {
-        for (String name : fileNames) {
-            File file = new File(getWorkingDir() + "/" + name);
-            String content = Utils.readContentsAsString(file);
-            String hashed = new Blob(name, content).getId();
-            String trackedHash = currentBlobs.get(name);
-            if (hashed.equals(trackedHash)) {
-                continue;
+        TreeMap<String, String> files = knownIds(fileNames);
+        Map<String, String> fromCurrent = diffWorking(current, files);
+        Map<String, String> fromGiven = diffWorking(given, files);
+        ArrayList<String> incoming = new ArrayList<>();
+        for (Map.Entry<String, String> change : fromGiven.entrySet()) {
+            String name = change.getKey();
+            if (change.getValue() != null && files.containsKey(name)
+                    && fromCurrent.containsKey(name)) {
+                incoming.add(name);
             }
-            if (switchBlobs.containsKey(name)) {
-                if (switchBlobs.get(name).equals(hashed)) {
-                    continue;
-                }
-                System.out.println("There is an untracked "
-                        + "file in the way; delete it, "
-                        + "or add and commit it first.");
-                return true;
+        }
+        Map<String, String> ids = workingIds(incoming);
+        for (String name : incoming) {
+            String hashed = ids.get(name);
+            if (hashed.equals(fromCurrent.get(name))
+                    || hashed.equals(fromGiven.get(name))) {
+                continue;
             }
+            System.out.println("There is an untracked "
+                    + "file in the way; delete it, "
+                    + "or add and commit it first.");
+            return true;
         }
         return false;
     }
@@ -278,95 +299,400 @@ public class Gitlet implements Serializable {
             System.out.println("Please enter a commit message.");
             return;
         }
-        if (_main._stagedForAdd.isEmpty() && _main._stagedForRemove.isEmpty()) {
+        if (_main._stage.isEmpty()) {
             System.out.println("No changes added to the commit.");
             return;
         }
         Commit commit = new Commit(_HEAD.getCommit(), author, message);
-        _main._HEAD.setCommit(commit.doCommit(_main._stagedForAdd,
-                _main._stagedForRemove));
+        _main._HEAD.setCommit(commit.doCommit(
+                _main._stage.getStagedForAdd(),
+                _main._stage.getStagedForRemove()));
         _main._HEAD.toFile();
-        _main._branches.put(_main._HEAD.getName(), _main._HEAD);
-        _main._stagedForAdd.clear();
-        _main._stagedForRemove.clear();
-        _main.toFile();
+        _main._stage.clear();
     }
 
     /** Create a branch from the latest commit.
      * @param branchName branch name
      * **/
     public void createBranch(String branchName) {
-        for (String branch : _main._branches.keySet()) {
-            if (branchName.equals(branch)) {
-                System.out.println("A branch with that name already exists.");
-                return;
-            }
+        if (Branch.exists(branchName)) {
+            System.out.println("A branch with that name already exists.");
+            return;
         }
-        Branch branch = new Branch(branchName, _main._HEAD.getCommit());
-        _main._branches.put(branchName, branch);
+        Branch branch = new Branch(branchName, _main._HEAD.getCommitId());
         branch.toFile();
-        _main.toFile();
+    }
+
+    /** Consolidate the loose branch refs into the packed-refs file. **/
+    public void packRefs() {
+        Branch.packRefs();
+    }
+
+    /** Check whether the repository was created by an older version of
+     * gitlet whose blob ids also depended on the file name.
+     * @return true if migrate must be run first.
+     * **/
+    public boolean needsMigration() {
+        File file = formatFile();
+        return !file.isFile()
+                || Integer.parseInt(Utils.readContentsAsString(file).trim())
+                < FORMAT;
+    }
+
+    /** Upgrade an older repository to content-only blob ids. Every blob
+     * is rehashed, every commit is rewritten with the new blob ids and
+     * parent ids, and every branch is moved to the rewritten commit.
+     * A repository of the first version also gets its HEAD, text refs
+     * and staging index from the serialized state, which is then
+     * deleted. The old commits and blobs are deleted once every branch
+     * is moved, and the message index is rebuilt from the new commits. **/
+    public void migrate() {
+        if (!needsMigration()) {
+            System.out.println("Repository is already up to date.");
+            return;
+        }
+        Legacy legacy = Legacy.exists() ? Legacy.load() : null;
+        HashMap<String, String> blobIds = new HashMap<>();
+        HashMap<String, String> commitIds = new HashMap<>();
+        ArrayList<String> ids = new ArrayList<>();
+        for (String id : ObjectStore.ids(ObjectStore.COMMIT)) {
+            ids.add(id);
+        }
+        for (String id : ids) {
+            migrateCommit(id, blobIds, commitIds);
+        }
+        TreeMap<String, String> branches = new TreeMap<>();
+        if (legacy != null) {
+            branches.putAll(legacy.branches());
+        } else {
+            for (String name : Branch.names()) {
+                branches.put(name, Branch.fromFile(name).getCommitId());
+            }
+        }
+        for (Map.Entry<String, String> branch : branches.entrySet()) {
+            new Branch(branch.getKey(), commitIds.get(branch.getValue()))
+                    .toFile();
+        }
+        if (legacy != null) {
+            Branch.setHead(legacy.head());
+            StagingArea stage = StagingArea.create(indexFile());
+            for (String name : legacy.stagedForAdd()) {
+                stage.stageForAdd(name);
+            }
+            for (String name : legacy.stagedForRemove()) {
+                stage.stageForRemove(name);
+            }
+            Legacy.remove();
+        }
+        HashMap<String, Byte> replaced = new HashMap<>();
+        for (Map.Entry<String, String> blob : blobIds.entrySet()) {
+            replaced.put(blob.getKey(), ObjectStore.BLOB);
+        }
+        for (Map.Entry<String, String> commit : commitIds.entrySet()) {
+            replaced.put(commit.getKey(), ObjectStore.COMMIT);
+        }
+        replaced.keySet().removeAll(blobIds.values());
+        replaced.keySet().removeAll(commitIds.values());
+        ObjectStore.remove(replaced);
+        MessageIndex.rebuild();
+        Utils.writeContents(formatFile(), FORMAT + "\n");
+    }
+
+    /** Rewrite a commit and, first, all its ancestors that are not
+     * rewritten yet.
+     * @param id id of the commit.
+     * @param blobIds mapping from old to new blob ids.
+     * @param commitIds mapping from old to new commit ids.
+     * **/
+    private void migrateCommit(String id, HashMap<String, String> blobIds,
+                               HashMap<String, String> commitIds) {
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            String current = stack.peek();
+            if (commitIds.containsKey(current)) {
+                stack.pop();
+                continue;
+            }
+            Commit commit = Commit.fromFile(current);
+            String parent = commit.getParentId();
+            String merged = commit.getMergedParentId();
+            boolean ready = true;
+            for (String p : new String[] {parent, merged}) {
+                if (p != null && !commitIds.containsKey(p)) {
+                    stack.push(p);
+                    ready = false;
+                }
+            }
+            if (!ready) {
+                continue;
+            }
+            stack.pop();
+            HashMap<String, String> blobs = new HashMap<>();
+            for (Map.Entry<String, String> blob
+                    : commit.getBlobs().entrySet()) {
+                blobs.put(blob.getKey(),
+                        migrateBlob(blob.getValue(), blobIds));
+            }
+            Commit copy = new Commit(commit, blobs,
+                    parent == null ? null : commitIds.get(parent),
+                    merged == null ? null : commitIds.get(merged));
+            copy.toFile();
+            commitIds.put(current, copy.getId());
+        }
+    }
+
+    /** Store a blob under its content-only id.
+     * @param id the old id of the blob.
+     * @param blobIds mapping from old to new blob ids.
+     * @return the new id.
+     * **/
+    private String migrateBlob(String id, HashMap<String, String> blobIds) {
+        String newId = blobIds.get(id);
+        if (newId != null) {
+            return newId;
+        }
+        try {
+            long length;
+            try (ObjectStore.ObjectStream in =
+                         ObjectStore.open(ObjectStore.BLOB, id)) {
+                length = in.getLength();
+                newId = Blob.idOf(length, in);
+            }
+            if (!ObjectStore.contains(ObjectStore.BLOB, newId)) {
+                try (ObjectStore.ObjectStream in =
+                             ObjectStore.open(ObjectStore.BLOB, id)) {
+                    ObjectStore.write(ObjectStore.BLOB, newId, in, length);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        blobIds.put(id, newId);
+        return newId;
+    }
+
+    /** Move the loose objects into a pack and add the new commits to
+     * the commit graph file. **/
+    public void repack() {
+        ObjectStore.repack();
+        CommitGraph.write(branchTips());
+    }
+
+    /** Delete the objects that no branch can reach. The commit graph is
+     * walked from every branch, reading only the reachable commits; the
+     * staging area holds file names only, so it adds nothing. Unreachable
+     * objects written in the last GRACE seconds are kept, so an object
+     * that another command is about to refer to is never lost. The commit
+     * graph and the message index are then written again.
+     * @param grace the grace period in seconds.
+     * **/
+    public void gc(long grace) {
+        HashSet<String> commits = new HashSet<>();
+        HashSet<String> trees = new HashSet<>();
+        HashSet<String> blobs = new HashSet<>();
+        List<String> tips = branchTips();
+        ArrayDeque<String> pending = new ArrayDeque<>(tips);
+        while (!pending.isEmpty()) {
+            String id = pending.pop();
+            if (!commits.add(id)) {
+                continue;
+            }
+            Commit commit = Commit.fromFile(id);
+            if (commit.getTreeId() != null) {
+                Tree.collect(commit.getTreeId(), trees, blobs);
+            } else {
+                blobs.addAll(commit.getBlobs().values());
+            }
+            if (commit.getParentId() != null) {
+                pending.push(commit.getParentId());
+            }
+            if (commit.getMergedParentId() != null) {
+                pending.push(commit.getMergedParentId());
+            }
+        }
+        HashMap<String, Byte> reachable = new HashMap<>();
+        for (String id : blobs) {
+            reachable.put(id, ObjectStore.BLOB);
+            List<String> chunks = ObjectStore.chunksOf(id);
+            if (chunks != null) {
+                for (String chunk : chunks) {
+                    reachable.put(chunk, ObjectStore.CHUNK);
+                }
+            }
+        }
+        for (String id : trees) {
+            reachable.put(id, ObjectStore.TREE);
+        }
+        for (String id : commits) {
+            reachable.put(id, ObjectStore.COMMIT);
+        }
+        ObjectStore.gc(reachable, System.currentTimeMillis() - grace * 1000);
+        CommitGraph.write(tips);
+        MessageIndex.rebuild();
     }
 
     /** Remove the branch.
      * @param branchName name of branch.
      * **/
     public void removeBranch(String branchName) {
-        if (!_main._branches.containsKey(branchName)) {
+        if (!Branch.exists(branchName)) {
             System.out.println("A branch with that name does not exist.");
         } else if (_main._HEAD.getName().equals(branchName)) {
             System.out.println("Cannot remove the current branch.");
         } else {
-            _main._branches.remove(branchName);
             Branch.removeFile(branchName);
-            _main.toFile();
         }
     }
     /** Reset the current files back to the commit.
-     * @param commitHash commit hash to return to.
+     * @param commitHash commit hash to return to, possibly abbreviated.
      * **/
     public void reset(String commitHash) {
-        ArrayList<Commit> commits = listAllCommit();
-        boolean found = false;
-        for (Commit commit : commits) {
-            if (commit.getId().equals(commitHash)) {
-                found = true;
-                Commit current = _main._HEAD.getCommit();
-                HashMap<String, String> currentBlobs = current.getBlobs();
-                HashMap<String, String> switchToBlobs = commit.getBlobs();
-                List<String> names = Utils.plainFilenamesIn(getWorkingDir());
-                if (checkForUntracked(currentBlobs, switchToBlobs, names)) {
-                    return;
-                }
-                for (String name : names) {
-                    if (switchToBlobs.containsKey(name)) {
-                        Blob blob = Blob.fromFile(switchToBlobs.get(name));
-                        File file = new File(getWorkingDir()
-                                + "/" + blob.getFilename());
-                        Utils.writeContents(file, blob.getContent());
-                    } else if (currentBlobs.containsKey(name)) {
-                        Utils.restrictedDelete(name);
-                    }
-                }
-                for (String fileName : switchToBlobs.keySet()) {
-                    if (!currentBlobs.containsKey(fileName)) {
-                        Blob blob = Blob.fromFile(switchToBlobs.get(fileName));
-                        File file = new File(getWorkingDir()
-                                + "/" + blob.getFilename());
-                        Utils.writeContents(file, blob.getContent());
-                    }
-                }
-                _main._stagedForAdd.clear();
-                _main._stagedForRemove.clear();
-                _main._HEAD.setCommit(commit);
-                _main._HEAD.toFile();
-                _main.toFile();
-                break;
+        String commitId = resolveCommit(commitHash);
+        if (commitId == null) {
+            return;
+        }
+        Commit commit = Commit.fromFile(commitId);
+        Commit current = _main._HEAD.getCommit();
+        Map<String, String> changes = diffCommits(current, commit);
+        changes.keySet().removeIf(name -> !inSparse(name));
+        if (overwritesWork(current, changes)) {
+            return;
+        }
+        HashMap<String, String> tracked = commit.getBlobs();
+        tracked.keySet().removeIf(name -> !inSparse(name));
+        ArrayList<String> unchanged = new ArrayList<>();
+        for (String name : tracked.keySet()) {
+            if (!changes.containsKey(name)
+                    && new File(getWorkingDir(), name).isFile()) {
+                unchanged.add(name);
             }
         }
-        if (!found) {
-            System.out.println("No commit with that id exists.");
+        Map<String, String> ids = workingIds(unchanged);
+        for (Map.Entry<String, String> file : tracked.entrySet()) {
+            String name = file.getKey();
+            if (!changes.containsKey(name)
+                    && !file.getValue().equals(ids.get(name))) {
+                changes.put(name, file.getValue());
+            }
+        }
+        applyChanges(changes);
+        _main._stage.clear();
+        _main._HEAD.setCommit(commit);
+        _main._HEAD.toFile();
+    }
+
+    /** Find the files that differ between two commits. When both have
+     * trees, subtrees with the same id are skipped without being read.
+     * @param from the commit checked out now.
+     * @param to the commit to check out.
+     * @return mapping from path to the blob id in TO, or to null for a
+     * file TO does not track, in path order.
+     * **/
+    private static Map<String, String> diffCommits(Commit from, Commit to) {
+        TreeMap<String, String> changes = new TreeMap<>();
+        if (from.getTreeId() != null && to.getTreeId() != null) {
+            Tree.diff(from.getTreeId(), to.getTreeId(), changes);
+            return changes;
+        }
+        HashMap<String, String> fromBlobs = from.getBlobs();
+        HashMap<String, String> toBlobs = to.getBlobs();
+        for (Map.Entry<String, String> file : toBlobs.entrySet()) {
+            if (!file.getValue().equals(fromBlobs.get(file.getKey()))) {
+                changes.put(file.getKey(), file.getValue());
+            }
+        }
+        for (String name : fromBlobs.keySet()) {
+            if (!toBlobs.containsKey(name)) {
+                changes.put(name, null);
+            }
+        }
+        return changes;
+    }
+
+    /** Find the working files that differ from the files a commit
+     * tracks. When the commit has a tree, a directory whose files all have
+     * known ids is compared with its subtree by tree id.
+     * @param commit the commit.
+     * @param files mapping from working path to its blob id, or to null
+     *              if the id is not known.
+     * @return mapping from path to the blob id in COMMIT, or to null for a
+     * file COMMIT does not track, in path order.
+     * **/
+    private static Map<String, String> diffWorking(Commit commit,
+                                                   Map<String, String> files) {
+        TreeMap<String, String> changes = new TreeMap<>();
+        if (commit.getTreeId() != null) {
+            Tree.diffFiles(commit.getTreeId(), files, changes);
+            return changes;
+        }
+        HashMap<String, String> blobs = commit.getBlobs();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            String id = blobs.get(file.getKey());
+            if (id == null || !id.equals(file.getValue())) {
+                changes.put(file.getKey(), id);
+            }
+        }
+        for (Map.Entry<String, String> blob : blobs.entrySet()) {
+            if (!files.containsKey(blob.getKey())) {
+                changes.put(blob.getKey(), blob.getValue());
+            }
+        }
+        return changes;
+    }
+
+    /** Check that writing CHANGES over the working directory would not
+     * lose a file that CURRENT does not track, or that was modified, and
+     * print an error if it would.
+     * @param current the commit checked out now.
+     * @param changes mapping from path to the blob id to write, or null.
+     * @return true if the switch must not happen.
+     * **/
+    private boolean overwritesWork(Commit current,
+                                   Map<String, String> changes) {
+        ArrayList<String> targets = new ArrayList<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String name = change.getKey();
+            if (change.getValue() != null
+                    && (!ignore().matches(name)
+                        || current.getBlobId(name) != null)
+                    && new File(getWorkingDir(), name).isFile()) {
+                targets.add(name);
+            }
+        }
+        Map<String, String> ids = workingIds(targets);
+        for (String name : targets) {
+            String hashed = ids.get(name);
+            if (hashed.equals(changes.get(name))
+                    || hashed.equals(current.getBlobId(name))) {
+                continue;
+            }
+            System.out.println("There is an untracked "
+                    + "file in the way; delete it, "
+                    + "or add and commit it first.");
+            return true;
+        }
+        return false;
+    }
+
+    /** Write the changed files into the working directory and delete the
+     * removed ones; nothing else is touched. The deletions come first, so
+     * a directory emptied by them can be replaced by a file, and the
+     * writes are then done in one batch.
+     * @param changes mapping from path to the blob id to write, or to
+     *                null for a file to delete.
+     * **/
+    private void applyChanges(Map<String, String> changes) {
+        TreeMap<String, String> writes = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                deleteWorkingFile(change.getKey());
+            } else {
+                writes.put(change.getKey(), change.getValue());
+            }
         }
+        new Checkout(new File(getWorkingDir()), _main._stats, _jobs)
+                .write(writes);
     }
 
     /** Get the current status of the gitlet managed directory.
@@ -374,19 +700,19 @@ public class Gitlet implements Serializable {
     public void getStatus() {
         System.out.println("=== Branches ===");
         System.out.println("*" + _main._HEAD.getName());
-        for (String branchName : _main._branches.keySet()) {
+        for (String branchName : Branch.names()) {
             if (!branchName.equals(_main._HEAD.getName())) {
                 System.out.println(branchName);
             }
         }
 
         System.out.println("\n=== Staged Files ===");
-        for (String fileName : _main._stagedForAdd) {
+        for (String fileName : _main._stage.getStagedForAdd()) {
             System.out.println(fileName);
         }
 
         System.out.println("\n=== Removed Files ===");
-        for (String fileName : _main._stagedForRemove) {
+        for (String fileName : _main._stage.getStagedForRemove()) {
             System.out.println(fileName);
         }
 
@@ -418,65 +744,90 @@ public class Gitlet implements Serializable {
     private void buildModifiedUntracked(ArrayList<String> deletedFiles,
                                         ArrayList<String> modifiedFiles,
                                         ArrayList<String> untrackedFiles) {
-        HashMap<String, String> blobs = _main._HEAD.getCommit().getBlobs();
-        File currentDir = new File(getWorkingDir());
-        File [] files = currentDir.listFiles();
-        List<String> names = Utils.plainFilenamesIn(getWorkingDir());
-        for (String name : names) {
-            if (blobs.containsKey(name)) {
-                File f = new File(getWorkingDir() + "/" + name);
-                String content = Utils.readContentsAsString(f);
-                String id = blobs.get(name);
-                Blob blob = Blob.fromFile(id);
-                if (!blob.getContent().equals(content)
-                        && !_main._stagedForAdd.contains(name)
-                        && !_main._stagedForRemove.contains(name)) {
-                    modifiedFiles.add(name);
-                }
-            } else if (!_main._stagedForAdd.contains(name)
-                    && !_main._stagedForRemove.contains(name)) {
-                untrackedFiles.add(name);
+        Set<String> stagedForAdd = _main._stage.getStagedForAdd();
+        Set<String> stagedForRemove = _main._stage.getStagedForRemove();
+        TreeMap<String, String> files = knownIds(workingNames());
+        Map<String, String> changes = diffWorking(_main._HEAD.getCommit(),
+                files);
+        ArrayList<String> tracked = new ArrayList<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String name = change.getKey();
+            if (change.getValue() != null && files.containsKey(name)
+                    && !stagedForAdd.contains(name)
+                    && !stagedForRemove.contains(name)) {
+                tracked.add(name);
             }
         }
-        for (String fileName : blobs.keySet()) {
-            boolean found = false;
-            for (File f : files) {
-                if (f.getName().equals(fileName)) {
-                    found = true;
+        Map<String, String> ids = workingIds(tracked);
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String name = change.getKey();
+            String id = change.getValue();
+            if (!files.containsKey(name)) {
+                if (!stagedForRemove.contains(name) && inSparse(name)) {
+                    deletedFiles.add(name);
                 }
-            }
-            if (!found && !_main._stagedForRemove.contains(fileName)) {
-                deletedFiles.add(fileName);
+            } else if (id != null) {
+                if (ids.containsKey(name) && !ids.get(name).equals(id)) {
+                    modifiedFiles.add(name);
+                }
+            } else if (!stagedForAdd.contains(name)
+                    && !stagedForRemove.contains(name)) {
+                untrackedFiles.add(name);
             }
         }
     }
 
-    /** List all info of all commmits ever made. **/
-    public void globalLog() {
-        ArrayList<Commit> commits = listAllCommit();
-        String log = "";
-        for (Commit commit : commits) {
-            log = getLog(commit, log, _form);
+    /** Print the log entry of every commit ever made, in no particular
+     * order. The commits are enumerated a pack or a shard at a time and
+     * printed as they are read, through the same paged buffer as log;
+     * the walk stops once FILTER is full or the output is closed.
+     * @param filter selects the commits to print.
+     * **/
+    public void globalLog(LogFilter filter) {
+        PrintStream out = logStream();
+        int printed = 0;
+        for (String id : ObjectStore.ids(ObjectStore.COMMIT)) {
+            if (filter.full()) {
+                break;
+            }
+            Commit commit = Commit.fromFile(id);
+            if (filter.accept(commit)) {
+                printLog(out, commit);
+                printed += 1;
+                if (printed % LOG_PAGE == 0 && closed(out)) {
+                    return;
+                }
+            }
         }
-        System.out.println(log);
+        out.println();
+        out.flush();
     }
 
-    /** Find a commit with specific message.
+    /** Find the commits with a specific message, through the message
+     * index.
      * @param message message to search for.
      * **/
     public void find(String message) {
-        ArrayList<Commit> commits = listAllCommit();
-        ArrayList<Commit> filtered = new ArrayList<>();
-        for (Commit commit : commits) {
-            if (commit.getMessage().equals(message)) {
-                filtered.add(commit);
-            }
-        }
-        if (filtered.size() == 0) {
+        printFound(MessageIndex.exact(message, branchTips()));
+    }
+
+    /** Print the ids of all commits whose message contains TEXT,
+     * ignoring case.
+     * @param text the text to look for.
+     * **/
+    public void findContaining(String text) {
+        printFound(MessageIndex.load(branchTips()).search(text));
+    }
+
+    /** Print the ids found by find.
+     * @param ids the commit ids.
+     * **/
+    private void printFound(List<String> ids) {
+        if (ids.isEmpty()) {
             System.out.println("Found no commit with that message.");
         } else {
-            for (Commit commit : filtered) {
-                System.out.println(commit.getId());
+            for (String id : ids) {
+                System.out.println(id);
             }
         }
     }
@@ -485,10 +836,9 @@ public class Gitlet implements Serializable {
      * @param branchName the name of the branch.
      */
     public void merge(String branchName) {
-        if (!(_main._stagedForRemove.isEmpty()
-                && _main._stagedForAdd.isEmpty())) {
+        if (!_main._stage.isEmpty()) {
             System.out.println("You have uncommitted changes.");
-        } else if (!_main._branches.containsKey(branchName)) {
+        } else if (!Branch.exists(branchName)) {
             System.out.println("A branch with that name does not exist.");
         } else if (branchName.equals(_main._HEAD.getName())) {
             System.out.println("Cannot merge a branch with itself.");
@@ -505,20 +855,20 @@ public class Gitlet implements Serializable {
                 checkoutBranch(branchName);
                 System.out.println("Current branch fast-forwarded.");
             } else {
-                if (handleMerge(givenBranch, commonAncestor)) {
+                TreeMap<String, String> unwritten = new TreeMap<>();
+                if (handleMerge(givenBranch, commonAncestor, unwritten)) {
                     return;
                 }
                 String message = "Merged " + branchName
                         + " into " + _main._HEAD.getName() + ".";
                 Commit p = _main._HEAD.getCommit();
                 Commit commit = new Commit(p, "Vinh Bui", message);
-                commit.doCommit(_main._stagedForAdd, _main._stagedForRemove);
-                _main._stagedForAdd.clear();
-                _main._stagedForRemove.clear();
                 commit.setMergedParent(givenBranch.getCommit());
+                commit.doCommit(_main._stage.getStagedForAdd(),
+                        _main._stage.getStagedForRemove(), unwritten);
+                _main._stage.clear();
                 _main._HEAD.setCommit(commit);
                 _main._HEAD.toFile();
-                _main.toFile();
             }
         }
     }
@@ -527,51 +877,94 @@ public class Gitlet implements Serializable {
      * Handle the merge function.
      * @param givenBranch the current branch
      * @param commonAncestor the merging function.
+     * @param unwritten receives the blob ids of the files taken from
+     *                  either side that are outside the sparse checkout,
+     *                  which are staged but not written.
      * @return true if merge successful, false otherwise.
      */
-    private boolean handleMerge(Branch givenBranch, Commit commonAncestor) {
+    private boolean handleMerge(Branch givenBranch, Commit commonAncestor,
+                                Map<String, String> unwritten) {
         Commit givenCommit = givenBranch.getCommit();
         Commit headCommit = _main._HEAD.getCommit();
-        HashMap<String, String> cBlobs = headCommit.getBlobs();
-        HashMap<String, String> iBlobs = givenCommit.getBlobs();
-        List<String> names = Utils.plainFilenamesIn(getWorkingDir());
         String workingDir = getWorkingDir() + "/";
-        if (checkForUntracked(cBlobs, iBlobs, names)) {
+        if (checkForUntracked(headCommit, givenCommit, workingNames())) {
             return true;
         }
-        HashMap<String, String> flashPoint = commonAncestor.getBlobs();
-        flashPointFiles(cBlobs, iBlobs, flashPoint);
+        TreeMap<String, String> writes = new TreeMap<>();
+        TreeMap<String, String[]> sides = mergeSides(commonAncestor,
+                headCommit, givenCommit);
+        flashPointFiles(sides, writes);
 
         if (headCommit.getMergedParent() != null) {
             Commit secondParent = headCommit.getMergedParent();
             Commit commonP2 = findCommonAncestor(secondParent, givenCommit);
-            HashMap<String, String> flashSecond = commonP2.getBlobs();
-            flashPointFiles(secondParent.getBlobs(), iBlobs, flashSecond);
+            flashPointFiles(mergeSides(commonP2, secondParent, givenCommit),
+                    writes);
         }
         if (givenCommit.getMergedParent() != null) {
             Commit givenMerge = givenCommit.getMergedParent();
             Commit commonP2 = findCommonAncestor(headCommit, givenMerge);
-            HashMap<String, String> flashSecond = commonP2.getBlobs();
-            flashPointFiles(cBlobs, givenMerge.getBlobs(), flashSecond);
-        }
-        for (String fileName : iBlobs.keySet()) {
-            if (!flashPoint.containsKey(fileName)) {
-                if (!cBlobs.containsKey(fileName)) {
-                    String id = iBlobs.get(fileName);
-                    mergeAdd(workingDir, fileName, id);
-                } else {
-                    String cId = cBlobs.get(fileName);
-                    String iId = iBlobs.get(fileName);
-                    if (!cId.equals(iId)) {
-                        handleConflict(workingDir, fileName, cId, iId);
-                    }
-                }
-
+            flashPointFiles(mergeSides(commonP2, headCommit, givenMerge),
+                    writes);
+        }
+        for (Map.Entry<String, String[]> side : sides.entrySet()) {
+            String fileName = side.getKey();
+            String cId = side.getValue()[1];
+            String iId = side.getValue()[2];
+            if (side.getValue()[0] != null || iId == null) {
+                continue;
+            }
+            if (cId == null) {
+                mergeAdd(writes, fileName, iId);
+            } else if (!cId.equals(iId)) {
+                writes.remove(fileName);
+                handleConflict(workingDir, fileName, cId, iId);
             }
         }
+        for (Map.Entry<String, String> write : writes.entrySet()) {
+            if (write.getValue() != null && !inSparse(write.getKey())) {
+                unwritten.put(write.getKey(), write.getValue());
+            }
+        }
+        writes.keySet().removeAll(unwritten.keySet());
+        applyChanges(writes);
         return false;
     }
 
+    /** Find the files that either side of a merge changed since the split
+     * point, by diffing the trees of the commits, so that the files no
+     * side changed are never looked at.
+     * @param split the split point.
+     * @param current the commit merged into.
+     * @param given the commit merged in.
+     * @return mapping from path to its blob ids at SPLIT, in CURRENT and
+     * in GIVEN, each null if that commit lacks the file, in path order.
+     * **/
+    private static TreeMap<String, String[]> mergeSides(Commit split,
+                                                        Commit current,
+                                                        Commit given) {
+        Map<String, String> fromCurrent = diffCommits(split, current);
+        Map<String, String> toCurrent = diffCommits(current, split);
+        Map<String, String> fromGiven = diffCommits(split, given);
+        Map<String, String> toGiven = diffCommits(given, split);
+        TreeMap<String, String[]> sides = new TreeMap<>();
+        for (Map.Entry<String, String> change : fromCurrent.entrySet()) {
+            String path = change.getKey();
+            String splitId = toCurrent.get(path);
+            sides.put(path, new String[] {splitId, change.getValue(),
+                fromGiven.containsKey(path) ? fromGiven.get(path) : splitId});
+        }
+        for (Map.Entry<String, String> change : fromGiven.entrySet()) {
+            String path = change.getKey();
+            if (!sides.containsKey(path)) {
+                String splitId = toGiven.get(path);
+                sides.put(path, new String[] {splitId, splitId,
+                    change.getValue()});
+            }
+        }
+        return sides;
+    }
+
     /**
      * Handle the merge conflict.
      * @param workingDir current dir
@@ -582,78 +975,81 @@ public class Gitlet implements Serializable {
     private void handleConflict(String workingDir,
                                 String fileName, String cId, String iId) {
         File file = new File(workingDir + fileName);
-        String currentContent = "";
-        String incomingContent = "";
+        byte[] currentContent = new byte[0];
+        byte[] incomingContent = new byte[0];
         if (!cId.equals("")) {
             currentContent = Blob.fromFile(cId).getContent();
         }
         if (!iId.equals("")) {
             incomingContent = Blob.fromFile(iId).getContent();
         }
-        String content = "<<<<<<< HEAD\n"
-                + currentContent + "=======\n"
-                + incomingContent + ">>>>>>>\n";
-        Utils.writeContents(file, content);
-        _main._stagedForAdd.add(fileName);
+        Utils.writeContents(file, "<<<<<<< HEAD\n", currentContent,
+                "=======\n", incomingContent, ">>>>>>>\n");
+        _main._stage.stageForAdd(fileName);
         System.out.println("Encountered a merge conflict.");
     }
 
     /** Deal with files that are modified in given branch since split point
      * but not current branch.
-     * @param currentBlobs blobs of current branch.
-     * @param incomeBlobs blobs of merging branch.
-     * @param flashPoint point of split.
+     * @param sides the blob ids of the files changed on either side, at
+     *              the split point, in the current and in the merging
+     *              branch, as from mergeSides.
+     * @param writes receives the files to write or, mapped to null, to
+     *               delete; a conflict written later drops its file.
      */
-    private void flashPointFiles(HashMap<String, String> currentBlobs,
-                                 HashMap<String, String> incomeBlobs,
-                                 HashMap<String, String> flashPoint) {
+    private void flashPointFiles(Map<String, String[]> sides,
+                                 Map<String, String> writes) {
         String workingDir = getWorkingDir() + "/";
-        for (String fileName : flashPoint.keySet()) {
-            String flashPointId = flashPoint.get(fileName);
-            if (currentBlobs.containsKey(fileName)
-                    && incomeBlobs.containsKey(fileName)) {
-                String iId = incomeBlobs.get(fileName);
-                String cId = currentBlobs.get(fileName);
+        for (Map.Entry<String, String[]> side : sides.entrySet()) {
+            String fileName = side.getKey();
+            String flashPointId = side.getValue()[0];
+            String cId = side.getValue()[1];
+            String iId = side.getValue()[2];
+            if (flashPointId == null) {
+                continue;
+            }
+            if (cId != null && iId != null) {
                 if (iId.equals(cId)) {
                     continue;
                 } else if (iId.equals(flashPointId)) {
-                    mergeAdd(workingDir, fileName, cId);
+                    mergeAdd(writes, fileName, cId);
                 } else if (cId.equals(flashPointId)) {
-                    mergeAdd(workingDir, fileName, iId);
+                    mergeAdd(writes, fileName, iId);
                 } else {
+                    writes.remove(fileName);
                     handleConflict(workingDir, fileName, cId, iId);
                 }
-            } else if (currentBlobs.containsKey(fileName)) {
-                String cId = currentBlobs.get(fileName);
+            } else if (cId != null) {
                 if (cId.equals(flashPointId)) {
-                    Utils.restrictedDelete(fileName);
-                    _main._stagedForRemove.add(fileName);
+                    writes.put(fileName, null);
+                    _main._stage.stageForRemove(fileName);
                 } else {
+                    writes.remove(fileName);
                     handleConflict(workingDir, fileName, cId, "");
                 }
-            } else if (incomeBlobs.containsKey(fileName)) {
-                String iId = incomeBlobs.get(fileName);
-                if (!iId.equals(flashPointId)) {
-                    handleConflict(workingDir, fileName, "", iId);
-                }
+            } else if (iId != null && !iId.equals(flashPointId)) {
+                writes.remove(fileName);
+                handleConflict(workingDir, fileName, "", iId);
             }
         }
     }
+
     /** Helper for auto write file and add to stage area.
-     * @param workingDir current working dir
+     * @param writes receives the file to write.
      * @param fileName name of the file
      * @param chosenOne the blob id
      * **/
-    private void mergeAdd(String workingDir,
+    private void mergeAdd(Map<String, String> writes,
                           String fileName, String chosenOne) {
-        Blob blob = Blob.fromFile(chosenOne);
-        File file = new File(workingDir + fileName);
-        Utils.writeContents(file, blob.getContent());
-        _main._stagedForAdd.add(fileName);
+        writes.put(fileName, chosenOne);
+        _main._stage.stageForAdd(fileName);
     }
 
     /**
-     * Find the common ancestor from both branches.
+     * Find the common ancestor from both branches, through the commit
+     * graph, following the second parent of merge commits too. If the
+     * walk had to read many commits that the commit graph file lacks,
+     * the file is brought up to date for the next merge.
      * @param commitB1 commit number 1
      * @param commitB2 commit number 2
      * @return at worst case, the function will return the initial commit.
@@ -661,59 +1057,331 @@ public class Gitlet implements Serializable {
      */
     private Commit findCommonAncestor(Commit commitB1,
                                       Commit commitB2) {
-        ArrayList<Commit> commitsList1 = new ArrayList<>();
-        ArrayList<Commit> commitsList2 = new ArrayList<>();
+        if (_graph == null) {
+            _graph = new CommitGraph();
+        }
+        String id = _graph.mergeBase(commitB1.getId(), commitB2.getId());
+        if (_graph.missing() > GRAPH_REFRESH) {
+            CommitGraph.write(branchTips());
+            _graph = new CommitGraph();
+        }
+        return id == null ? null : Commit.fromFile(id);
+    }
+
+    /** Return the commit ids of every branch. **/
+    private List<String> branchTips() {
+        ArrayList<String> result = new ArrayList<>();
+        for (String name : Branch.names()) {
+            result.add(Branch.fromFile(name).getCommitId());
+        }
+        return result;
+    }
+
+    /** Open the repository. Only HEAD and the staging index are read;
+     * every command that changes them writes them back on its own. A
+     * repository of the first version has neither until it is migrated.
+     * @return the gitlet instance, or null if there is no repository.
+     * **/
+    public static Gitlet fromFile() {
+        File file = new File(getDefaultFolder() + "/HEAD");
+        if (!file.exists()) {
+            if (!Legacy.exists()) {
+                return null;
+            }
+            _main = new Gitlet();
+            _main._stats = StatCache.load(statFile());
+            return _main;
+        }
+        _main = new Gitlet();
+        _main._HEAD = Branch.head();
+        _main._stage = StagingArea.load(indexFile());
+        _main._stats = StatCache.load(statFile());
+        return _main;
+    }
+
+    /** Write back the ids of working files learned by this command. **/
+    public void saveStatCache() {
+        _main._stats.save();
+    }
+
+    /** Return the blob id of a file in the working directory, hashing it
+     * only if the stat cache does not know it.
+     * @param name name of the file.
+     * @return the blob id.
+     * **/
+    private String workingId(String name) {
+        pollMonitor();
+        return _main._stats.idOf(name,
+                new File(getWorkingDir() + "/" + name));
+    }
+
+    /** Return the blob ids of files in the working directory, hashing
+     * the files the stat cache does not know on up to getJobs() threads.
+     * @param names names of the files.
+     * @return mapping from name to blob id.
+     * **/
+    private Map<String, String> workingIds(List<String> names) {
+        pollMonitor();
+        return _main._stats.idsOf(names, new File(getWorkingDir()),
+                getJobs());
+    }
+
+    /** Return the blob ids the stat cache knows of files in the working
+     * directory, without hashing any file.
+     * @param names names of the files.
+     * @return mapping from name to blob id, or to null if it is not known.
+     * **/
+    private TreeMap<String, String> knownIds(List<String> names) {
+        pollMonitor();
+        TreeMap<String, String> files = new TreeMap<>();
+        for (String name : names) {
+            files.put(name, _main._stats.knownId(name,
+                    new File(getWorkingDir(), name)));
+        }
+        return files;
+    }
 
-        while (commitB1 != null) {
-            commitsList1.add(commitB1);
-            commitB1 = commitB1.getParent();
+    /** Return the paths of the plain files in the working directory and
+     * its subdirectories, in order. With a monitor running, the directory
+     * is only listed again when the monitor cannot tell what changed.
+     * @return the names.
+     * **/
+    private List<String> workingNames() {
+        pollMonitor();
+        Set<String> names = _main._stats.getNames();
+        List<String> listed;
+        if (names != null) {
+            listed = new ArrayList<>(names);
+            listed.removeIf(name -> !inSparse(name));
+        } else {
+            listed = new ArrayList<>();
+            listWorkingFiles(new File(getWorkingDir()), "", ignore(),
+                    sparse().isEmpty() ? null : sparse(), listed);
+            Collections.sort(listed);
+            if (_main._stats.getSession() != 0) {
+                _main._stats.setNames(new TreeSet<>(listed));
+            }
         }
-        while (commitB2 != null) {
-            commitsList2.add(commitB2);
-            commitB2 = commitB2.getParent();
+        return withIgnoredTracked(listed);
+    }
+
+    /** Add the files tracked by the head commit that the ignore rules or
+     * the sparse checkout left out of a listing but that are there;
+     * tracked files are never ignored. Without ignore rules or a sparse
+     * checkout nothing was left out, and the head tree is not read.
+     * @param listed the sorted names of the listed files.
+     * @return the sorted names of all the working files to look at.
+     * **/
+    private List<String> withIgnoredTracked(List<String> listed) {
+        PathRules ignore = ignore();
+        if (ignore.isEmpty() && sparse().isEmpty()) {
+            return listed;
         }
-        for (int i = 0; i < commitsList2.size(); i++) {
-            Commit current = commitsList2.get(i);
-            if (commitsList1.contains(current)) {
-                return current;
+        HashSet<String> present = null;
+        boolean added = false;
+        for (String name : _main._HEAD.getCommit().getBlobs().keySet()) {
+            if (!ignore.matches(name) && inSparse(name)) {
+                continue;
+            }
+            if (present == null) {
+                present = new HashSet<>(listed);
             }
+            if (!present.contains(name)
+                    && new File(getWorkingDir(), name).isFile()) {
+                listed.add(name);
+                added = true;
+            }
+        }
+        if (added) {
+            Collections.sort(listed);
         }
-        return null;
+        return listed;
     }
 
-    /** List all commits.
-     * @return list of commits.
+    /** Add the paths of the plain files under DIR to RESULT, skipping the
+     * repository folder, everything the ignore rules exclude and, in a
+     * sparse checkout, everything outside it; directories skipped as a
+     * whole are not entered.
+     * @param dir the directory to list.
+     * @param prefix the path of DIR followed by '/', or "".
+     * @param ignore the ignore rules.
+     * @param sparse the sparse checkout rules, or null once DIR is known
+     *               to be inside the sparse checkout.
+     * @param result the list of paths.
      * **/
-    private ArrayList<Commit> listAllCommit() {
-        ArrayList<Commit> result = new ArrayList<>();
-        File file = new File(Commit.getFolderPath());
-        String [] commitIds = file.list();
-        for (String id : commitIds) {
-            String path = Commit.getFolderPath();
-            Commit commit = Commit.fromFile(new File(path + "/" + id));
-            result.add(commit);
+    private static void listWorkingFiles(File dir, String prefix,
+                                         PathRules ignore, PathRules sparse,
+                                         List<String> result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String path = prefix + file.getName();
+            if (file.isFile()) {
+                if (!ignore.matches(path, false)
+                        && (sparse == null || sparse.matches(path, false))) {
+                    result.add(path);
+                }
+            } else if (file.isDirectory()
+                    && !path.equals(getDefaultFolder())
+                    && !ignore.matches(path, true)) {
+                if (sparse == null || sparse.matches(path, true)) {
+                    listWorkingFiles(file, path + "/", ignore, null, result);
+                } else if (sparse.mayMatchUnder(path)) {
+                    listWorkingFiles(file, path + "/", ignore, sparse,
+                            result);
+                }
+            }
         }
-        return result;
     }
 
-    /** Serialize the _main gitlet instance to file. **/
-    public void toFile() {
-        String filePath = getDefaultFolder() + "/main";
-        File file = new File(filePath);
-        Utils.writeObject(file, _main);
+    /** Return the ignore rules of the working directory, read once per
+     * command. **/
+    private PathRules ignore() {
+        if (_main._ignore == null) {
+            _main._ignore = PathRules.load(new File(getWorkingDir(),
+                    IGNORE_FILE));
+        }
+        return _main._ignore;
     }
 
-    /** Retrieve the _main instance from file.
-     * @return the gitlet instance from file.
+    /** Return the paths of the sparse checkout, read once per command;
+     * they are empty when every path is checked out. **/
+    private PathRules sparse() {
+        if (_main._sparse == null) {
+            _main._sparse = PathRules.load(sparseFile());
+        }
+        return _main._sparse;
+    }
+
+    /** Check whether a path is checked out.
+     * @param name the path.
+     * @return true unless a sparse checkout leaves it out.
      * **/
-    public static Gitlet fromFile() {
-        String filePath = getDefaultFolder() + "/main";
-        File file = new File(filePath);
-        if (!file.exists()) {
-            return null;
+    private boolean inSparse(String name) {
+        return sparse().isEmpty() || sparse().matches(name);
+    }
+
+    /** Restrict the working directory to the paths matching PATTERNS, or
+     * check out every path again if there are none. Tracked files that
+     * come into the set are written, and unmodified tracked files that
+     * leave it are deleted; modified ones are left in place.
+     * @param patterns the patterns, in .gitletignore syntax.
+     * **/
+    public void setSparse(List<String> patterns) {
+        HashMap<String, String> blobs = _main._HEAD.getCommit().getBlobs();
+        HashSet<String> before = new HashSet<>();
+        for (String name : blobs.keySet()) {
+            if (inSparse(name)) {
+                before.add(name);
+            }
         }
-        _main = Utils.readObject(file, Gitlet.class);
-        return _main;
+        if (patterns.isEmpty()) {
+            sparseFile().delete();
+        } else {
+            Utils.writeContents(sparseFile(),
+                    String.join("\n", patterns) + "\n");
+        }
+        _main._sparse = null;
+        _main._stats.setNames(null);
+        ArrayList<String> leaving = new ArrayList<>();
+        TreeMap<String, String> changes = new TreeMap<>();
+        for (Map.Entry<String, String> file : blobs.entrySet()) {
+            String name = file.getKey();
+            boolean present = new File(getWorkingDir(), name).isFile();
+            if (inSparse(name) && !before.contains(name) && !present) {
+                changes.put(name, file.getValue());
+            } else if (!inSparse(name) && before.contains(name) && present) {
+                leaving.add(name);
+            }
+        }
+        Map<String, String> ids = workingIds(leaving);
+        for (String name : leaving) {
+            if (ids.get(name).equals(blobs.get(name))) {
+                changes.put(name, null);
+            }
+        }
+        applyChanges(changes);
+    }
+
+    /** Print the patterns of the sparse checkout. **/
+    public void listSparse() {
+        if (sparseFile().isFile()) {
+            System.out.print(Utils.readContentsAsString(sparseFile()));
+        }
+    }
+
+    /** Delete a file of the working directory, then every directory it
+     * leaves empty.
+     * @param name path of the file.
+     * **/
+    private void deleteWorkingFile(String name) {
+        File root = new File(getWorkingDir());
+        File file = new File(root, name);
+        if (file.isDirectory() || !file.delete()) {
+            return;
+        }
+        File dir = file.getParentFile();
+        while (dir != null && !dir.equals(root) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+    }
+
+    /** Ask the monitor, once per command, which working files changed
+     * since the previous command. **/
+    private void pollMonitor() {
+        if (!_main._polled) {
+            Monitor.poll(_main._stats, new File(getWorkingDir()), ignore());
+            _main._polled = true;
+        }
+    }
+
+    /** Watch the working directory until the process is killed. **/
+    public void monitor() {
+        Monitor.run(new File(getWorkingDir()));
+    }
+
+    /** Return the number of threads used to hash working files. **/
+    public static int getJobs() {
+        return _jobs;
+    }
+
+    /** Cap the number of threads used to hash working files.
+     * @param jobs the number of threads, at least 1.
+     * **/
+    public static void setJobs(int jobs) {
+        _jobs = jobs;
+    }
+
+    /** Write a blob into the working directory and remember its id in the
+     * stat cache.
+     * @param name name of the file.
+     * @param id id of the blob.
+     * **/
+    private void writeBlob(String name, String id) {
+        new Checkout(new File(getWorkingDir()), _main._stats, 1)
+                .write(Map.of(name, id));
+    }
+
+    /** Return the file holding the repository format version. **/
+    private static File formatFile() {
+        return new File(getDefaultFolder() + "/format");
+    }
+
+    /** Return the file holding the sparse checkout patterns. **/
+    private static File sparseFile() {
+        return new File(getDefaultFolder() + "/sparse");
+    }
+
+    /** Return the stat cache file. **/
+    private static File statFile() {
+        return new File(getDefaultFolder() + "/stat");
+    }
+
+    /** Return the staging index file. **/
+    private static File indexFile() {
+        return new File(getDefaultFolder() + "/index");
     }
 
     /** Return the current working directory. **/
@@ -721,17 +1389,45 @@ public class Gitlet implements Serializable {
         return System.getProperty("user.dir");
     }
 
+    /** Name of the file of ignore rules in the working directory. **/
+    static final String IGNORE_FILE = ".gitletignore";
+
+    /** Default grace period of gc, in seconds: two weeks. **/
+    static final long GC_GRACE = 14 * 24 * 60 * 60;
+
+    /** Repository format version: 2 since blob ids depend only on the
+     * content. **/
+    private static final int FORMAT = 2;
+
+    /** Number of log entries printed between checks of the output. **/
+    private static final int LOG_PAGE = 64;
+
+    /** Size of the buffer of log entries. **/
+    private static final int LOG_BUFFER_SIZE = 1 << 16;
+
+    /** A merge that read more commits than this outside the commit graph
+     * file rewrites it. **/
+    private static final int GRAPH_REFRESH = 100;
+
     /** The default location for gitlet. **/
     private static String _defaultFolder = ".gitlet";
 
-    /** HEAD pointer to latest commit. **/
-    private Branch _HEAD = null;
-    /** HashMap for managing the branches. **/
-    private HashMap<String, Branch> _branches = new HashMap<>();
-    /** Store add zone. **/
-    private LinkedHashSet<String> _stagedForAdd = new LinkedHashSet<>();
-    /** Store remove zone. **/
-    private LinkedHashSet<String> _stagedForRemove = new LinkedHashSet<>();
+    /** The current branch, loaded from the HEAD ref. **/
+    private transient Branch _HEAD = null;
+    /** Store add and remove zones. **/
+    private StagingArea _stage;
+    /** Blob ids of working files, by stat data. **/
+    private StatCache _stats;
+    /** The ignore rules, once read. **/
+    private PathRules _ignore;
+    /** The sparse checkout paths, once read. **/
+    private PathRules _sparse;
+    /** True once the monitor was asked for changes. **/
+    private boolean _polled;
+    /** The commit graph, once opened. **/
+    private CommitGraph _graph;
+    /** Number of threads used to hash working files. **/
+    private static int _jobs = Runtime.getRuntime().availableProcessors();
     /** Main instance of gitlet. **/
     private static Gitlet _main;
     /** Time format form of the gitlet. **/
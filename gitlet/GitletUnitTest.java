@@ -14,9 +14,11 @@ public class GitletUnitTest {
         Gitlet.init();
         File file = new File(Gitlet.getDefaultFolder());
         assertTrue(file.exists());
-        file = new File(Gitlet.getDefaultFolder() + "/main");
+        file = new File(Gitlet.getDefaultFolder() + "/index");
         assertTrue(file.exists());
-        file = new File(Gitlet.getDefaultFolder() + "/master");
+        file = new File(Gitlet.getDefaultFolder() + "/branches/master");
+        assertTrue(file.exists());
+        file = new File(Gitlet.getDefaultFolder() + "/HEAD");
         assertTrue(file.exists());
     }
 
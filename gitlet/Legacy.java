@@ -0,0 +1,269 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** Reader of the repositories written by the first version of gitlet,
+ * which kept everything with Java serialization: the current branch and
+ * the staging area in .gitlet/main, each branch in a file of the
+ * branches folder and each commit and blob in a file of its own. The
+ * branch files are read for the branch heads, since the copies of the
+ * branches held in main were not all kept up to date.
+ * The classes of that version have changed since, so a stream is read
+ * into private copies of them: each class descriptor in the stream is
+ * swapped for the descriptor of the copy, which pins the serialVersionUID
+ * of the old class and declares the same fields, so that the field values
+ * in the stream line up with it. A stream whose class does not match its
+ * copy is rejected.
+ * @author Vinh Bui
+ * **/
+class Legacy {
+
+    /** Check whether the repository was written by the first version.
+     * @return true if it still has the main state file.
+     * **/
+    static boolean exists() {
+        return stateFile().isFile();
+    }
+
+    /** Read the state of a repository of the first version.
+     * @return the state.
+     * **/
+    static Legacy load() {
+        OldGitlet main = read(stateFile(), OldGitlet.class);
+        Legacy legacy = new Legacy();
+        legacy._head = main._HEAD._name;
+        legacy._stagedForAdd = main._stagedForAdd;
+        legacy._stagedForRemove = main._stagedForRemove;
+        File folder = new File(Gitlet.getDefaultFolder(), "branches");
+        List<String> names = Utils.plainFilenamesIn(folder);
+        if (names != null) {
+            for (String name : names) {
+                OldBranch branch = read(new File(folder, name),
+                        OldBranch.class);
+                legacy._branches.put(branch._name, branch._commit._id);
+            }
+        }
+        return legacy;
+    }
+
+    /** Delete the main state file, once the repository is upgraded. **/
+    static void remove() {
+        stateFile().delete();
+    }
+
+    /** Return the name of the current branch. **/
+    String head() {
+        return _head;
+    }
+
+    /** Return the commit ids of the branches, by branch name. **/
+    Map<String, String> branches() {
+        return _branches;
+    }
+
+    /** Return the files staged for addition. **/
+    Set<String> stagedForAdd() {
+        return _stagedForAdd;
+    }
+
+    /** Return the files staged for removal. **/
+    Set<String> stagedForRemove() {
+        return _stagedForRemove;
+    }
+
+    /** Read a commit file of the first version.
+     * @param file the commit file.
+     * @return the commit, with its old id and its parent ids.
+     * **/
+    static Commit readCommit(File file) {
+        OldCommit old = read(file, OldCommit.class);
+        return new Commit(old._id, old._date, old._author, old._message,
+                old._blobs, idOf(old._parent), idOf(old._mergedParent));
+    }
+
+    /** Read a blob file of the first version, which held the content of
+     * the file as a string.
+     * @param file the blob file.
+     * @return the content.
+     * **/
+    static byte[] readBlob(File file) {
+        return read(file, OldBlob.class)._content
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Return the main state file of the first version. **/
+    private static File stateFile() {
+        return new File(Gitlet.getDefaultFolder(), "main");
+    }
+
+    /** Return the id of an old commit.
+     * @param commit the commit, or null.
+     * @return its id, or null.
+     * **/
+    private static String idOf(OldCommit commit) {
+        return commit == null ? null : commit._id;
+    }
+
+    /** Read the single object of an old file.
+     * @param file the file.
+     * @param expected the copy of the class of the object.
+     * @param <T> the type of the object.
+     * @return the object.
+     * **/
+    private static <T> T read(File file, Class<T> expected) {
+        try (ObjectInputStream in = new Input(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            return expected.cast(in.readObject());
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stream that reads the old classes into their copies. **/
+    private static class Input extends ObjectInputStream {
+
+        /** Read serialized objects from IN.
+         * @param in the serialized data.
+         * @throws IOException if the stream header is malformed.
+         * **/
+        Input(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+                throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            Class<?> copy = COPIES.get(desc.getName());
+            if (copy == null) {
+                return desc;
+            }
+            ObjectStreamClass local = ObjectStreamClass.lookup(copy);
+            if (desc.getSerialVersionUID() != local.getSerialVersionUID()
+                    || !sameFields(desc, local)) {
+                throw new InvalidClassException(desc.getName(),
+                        "not written by the first version of gitlet");
+            }
+            return local;
+        }
+
+        /** Check whether two descriptors have the same fields, in the
+         * same order.
+         * @param a a descriptor.
+         * @param b another descriptor.
+         * @return true if they match.
+         * **/
+        private static boolean sameFields(ObjectStreamClass a,
+                                          ObjectStreamClass b) {
+            ObjectStreamField[] fields = a.getFields();
+            ObjectStreamField[] others = b.getFields();
+            if (fields.length != others.length) {
+                return false;
+            }
+            for (int i = 0; i < fields.length; i += 1) {
+                if (!fields[i].getName().equals(others[i].getName())
+                        || fields[i].getTypeCode()
+                        != others[i].getTypeCode()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** The commit class of the first version, which held its parents
+     * themselves. **/
+    private static class OldCommit implements Serializable {
+        /** Version of gitlet.Commit in the first version. **/
+        private static final long serialVersionUID = 1170206919912785718L;
+        /** ID of the commit. **/
+        private String _id;
+        /** The date of commit. **/
+        private Date _date;
+        /** The author of commit. **/
+        private String _author;
+        /** The message commit. **/
+        private String _message;
+        /** Blob ids by file name. **/
+        private HashMap<String, String> _blobs;
+        /** Previous commit. **/
+        private OldCommit _parent;
+        /** The commit that merged into this commit. **/
+        private OldCommit _mergedParent;
+    }
+
+    /** The blob class of the first version. **/
+    private static class OldBlob implements Serializable {
+        /** Version of gitlet.Blob in the first version. **/
+        private static final long serialVersionUID = 6900930390738038204L;
+        /** ID of the blob, which depended on the file name. **/
+        private String _id;
+        /** The file name of the blob. **/
+        private String _filename;
+        /** The content of the file. **/
+        private String _content;
+        /** The file the blob was made from. **/
+        private File _file;
+    }
+
+    /** The branch class of the first version, which held its latest
+     * commit itself. **/
+    private static class OldBranch implements Serializable {
+        /** Version of gitlet.Branch in the first version. **/
+        private static final long serialVersionUID = 8294228948691532238L;
+        /** The latest commit of the branch. **/
+        private OldCommit _commit;
+        /** The name of the branch. **/
+        private String _name;
+    }
+
+    /** The repository state of the first version. **/
+    private static class OldGitlet implements Serializable {
+        /** Version of gitlet.Gitlet in the first version. **/
+        private static final long serialVersionUID = -9091720099824003882L;
+        /** The current branch. **/
+        private OldBranch _HEAD;
+        /** The branches, as of when each was last saved here. **/
+        private HashMap<String, OldBranch> _branches;
+        /** Store add zone. **/
+        private LinkedHashSet<String> _stagedForAdd;
+        /** Store remove zone. **/
+        private LinkedHashSet<String> _stagedForRemove;
+        /** Time format of the log. **/
+        private String _form;
+    }
+
+    /** Copies of the old classes, by the name of the old class. **/
+    private static final Map<String, Class<?>> COPIES =
+            Map.of("gitlet.Commit", OldCommit.class,
+                    "gitlet.Blob", OldBlob.class,
+                    "gitlet.Branch", OldBranch.class,
+                    "gitlet.Gitlet", OldGitlet.class);
+
+    /** Name of the current branch. **/
+    private String _head;
+    /** Commit ids of the branches, by branch name. **/
+    private final TreeMap<String, String> _branches = new TreeMap<>();
+    /** Files staged for addition. **/
+    private Set<String> _stagedForAdd;
+    /** Files staged for removal. **/
+    private Set<String> _stagedForRemove;
+}
@@ -0,0 +1,104 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/** Unit test for upgrading a repository of the first version. The
+ * repository in testing/legacy-gitlet was written by the first version:
+ * two files committed, a branch other that adds h.txt and removes g.txt,
+ * f.txt edited on master, other merged into master, then k.txt staged
+ * and h.txt removed.
+ * @author Vinh Bui
+ * **/
+public class LegacyUnitTest {
+
+    /** Replace the tree at TO by a copy of the tree at FROM.
+     * @param from the source directory.
+     * @param to the destination directory.
+     * @throws IOException on failure.
+     * **/
+    private static void copy(Path from, Path to) throws IOException {
+        if (Files.exists(to)) {
+            try (Stream<Path> old = Files.walk(to)) {
+                for (Path path : old.sorted(Comparator.reverseOrder())
+                        .collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+        }
+        try (Stream<Path> paths = Files.walk(from)) {
+            for (Path path : paths.collect(Collectors.toList())) {
+                Files.copy(path, to.resolve(from.relativize(path)));
+            }
+        }
+    }
+
+    /** Return the content of a stored blob as text.
+     * @param id the blob id.
+     * **/
+    private static String content(String id) {
+        return new String(Blob.fromFile(id).getContent(),
+                StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testMigratesFirstVersionRepository() throws IOException {
+        copy(Paths.get("testing/legacy-gitlet"),
+                Paths.get("testing/legacy-migrate"));
+        Gitlet.setDefaultFolder("testing/legacy-migrate");
+        Gitlet gitlet = Gitlet.fromFile();
+        assertNotNull(gitlet);
+        assertTrue(gitlet.needsMigration());
+        gitlet.migrate();
+        assertFalse(gitlet.needsMigration());
+        assertFalse(new File("testing/legacy-migrate/main").exists());
+
+        Branch master = Branch.head();
+        assertEquals("master", master.getName());
+        assertEquals(List.of("master", "other"), Branch.names());
+        Commit merge = master.getCommit();
+        assertEquals("Merged other into master.", merge.getMessage());
+        assertEquals("edit f on master", merge.getParent().getMessage());
+        assertEquals(Branch.fromFile("other").getCommitId(),
+                merge.getMergedParentId());
+        assertEquals("add h, remove g on other",
+                merge.getMergedParent().getMessage());
+        assertEquals("wug2\n", content(merge.getBlobId("f.txt")));
+        assertEquals("h\n", content(merge.getBlobId("h.txt")));
+        assertNull(merge.getBlobId("g.txt"));
+
+        Commit first = merge.getParent().getParent();
+        assertEquals("two files", first.getMessage());
+        assertEquals("not wug\n", content(first.getBlobId("g.txt")));
+        assertEquals(first.getId(),
+                merge.getMergedParent().getParentId());
+        assertEquals("initial commit", first.getParent().getMessage());
+        assertNull(first.getParent().getParentId());
+
+        ArrayList<String> commits = new ArrayList<>();
+        ObjectStore.ids(ObjectStore.COMMIT).forEach(commits::add);
+        assertEquals(5, commits.size());
+        ArrayList<String> blobs = new ArrayList<>();
+        ObjectStore.ids(ObjectStore.BLOB).forEach(blobs::add);
+        assertEquals(4, blobs.size());
+        assertEquals(List.of(first.getId()), MessageIndex.exact("two files",
+                List.of(merge.getId())));
+
+        StagingArea stage = StagingArea.load(
+                new File("testing/legacy-migrate/index"));
+        assertEquals(Set.of("k.txt"), stage.getStagedForAdd());
+        assertEquals(Set.of("h.txt"), stage.getStagedForRemove());
+    }
+}
@@ -0,0 +1,112 @@
+package gitlet;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+/** The options of log and global-log that select commits: -n COUNT,
+ * --since=DATE, --until=DATE and --author=NAME. A DATE is either
+ * YYYY-MM-DD, the whole day in the local time zone, or
+ * YYYY-MM-DDTHH:MM:SS. The filter also tells the walk when it can stop:
+ * once COUNT commits were printed, and, when walking back from a branch
+ * head, at the first commit older than the --since date.
+ * @author Vinh Bui
+ * **/
+class LogFilter {
+
+    /** Parse the options of a log command.
+     * @param args the command line.
+     * @param start index of the first option.
+     * @return the filter, or null if an option is malformed.
+     * **/
+    static LogFilter parse(String[] args, int start) {
+        LogFilter filter = new LogFilter();
+        for (int i = start; i < args.length; i += 1) {
+            String arg = args[i];
+            try {
+                if (arg.equals("-n") && i + 1 < args.length) {
+                    i += 1;
+                    filter._limit = Long.parseLong(args[i]);
+                } else if (arg.matches("-n\\d+")) {
+                    filter._limit = Long.parseLong(arg.substring(2));
+                } else if (arg.startsWith("--since=")) {
+                    filter._since = parseDate(arg.substring(8), false);
+                } else if (arg.startsWith("--until=")) {
+                    filter._until = parseDate(arg.substring(8), true);
+                } else if (arg.startsWith("--author=")) {
+                    filter._author = arg.substring(9);
+                } else {
+                    return null;
+                }
+            } catch (NumberFormatException | DateTimeParseException excp) {
+                return null;
+            }
+            if (filter._limit < 0) {
+                return null;
+            }
+        }
+        return filter;
+    }
+
+    /** Check whether a commit is selected, counting it if it is.
+     * @param commit the commit.
+     * @return true if it should be printed.
+     * **/
+    boolean accept(Commit commit) {
+        Date date = commit.getDate();
+        if (_since != null && date.before(_since)
+                || _until != null && date.after(_until)
+                || _author != null
+                && !commit.getAuthor().contains(_author)) {
+            return false;
+        }
+        _count += 1;
+        return true;
+    }
+
+    /** Return true once enough commits were printed. **/
+    boolean full() {
+        return _count >= _limit;
+    }
+
+    /** Check whether a walk back through first parents can stop at
+     * COMMIT: the commits before it are older still.
+     * @param commit the commit.
+     * @return true if it is older than the --since date.
+     * **/
+    boolean before(Commit commit) {
+        return _since != null && commit.getDate().before(_since);
+    }
+
+    /** Parse a date given to --since or --until.
+     * @param text the date.
+     * @param end whether a bare day stands for its last instant.
+     * @return the date.
+     * **/
+    private static Date parseDate(String text, boolean end) {
+        ZoneId zone = ZoneId.systemDefault();
+        if (text.contains("T")) {
+            return Date.from(LocalDateTime.parse(text).atZone(zone)
+                    .toInstant());
+        }
+        LocalDate day = LocalDate.parse(text);
+        if (end) {
+            return Date.from(day.plusDays(1).atStartOfDay(zone)
+                    .toInstant().minusMillis(1));
+        }
+        return Date.from(day.atStartOfDay(zone).toInstant());
+    }
+
+    /** Most commits to print. **/
+    private long _limit = Long.MAX_VALUE;
+    /** Number of commits printed so far. **/
+    private long _count;
+    /** Oldest date printed, or null. **/
+    private Date _since;
+    /** Newest date printed, or null. **/
+    private Date _until;
+    /** Text the author must contain, or null. **/
+    private String _author;
+}
@@ -0,0 +1,36 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit test for the log options.
+ * @author Vinh Bui
+ * **/
+public class LogFilterUnitTest {
+
+    @Test
+    public void testLimitAndDates() {
+        Commit initial = new Commit();
+        LogFilter filter = LogFilter.parse(new String[] {"log", "-n", "1",
+            "--until=1970-01-02"}, 1);
+        assertFalse(filter.before(initial));
+        assertTrue(filter.accept(initial));
+        assertTrue(filter.full());
+        filter = LogFilter.parse(new String[] {"log",
+            "--since=1970-01-02"}, 1);
+        assertTrue(filter.before(initial));
+        assertFalse(filter.accept(initial));
+        filter = LogFilter.parse(new String[] {"log",
+            "--author=The Author"}, 1);
+        assertTrue(filter.accept(initial));
+        assertFalse(filter.full());
+    }
+
+    @Test
+    public void testMalformedOptions() {
+        assertNull(LogFilter.parse(new String[] {"log", "-n"}, 1));
+        assertNull(LogFilter.parse(new String[] {"log", "-n", "-3"}, 1));
+        assertNull(LogFilter.parse(new String[] {"log", "--since=now"}, 1));
+        assertNull(LogFilter.parse(new String[] {"log", "extra"}, 1));
+    }
+}
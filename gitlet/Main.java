@@ -1,5 +1,8 @@
 package gitlet;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Vinh Bui
  */
@@ -13,6 +16,10 @@ public class Main {
             System.out.println("Please enter a command.");
             return;
         }
+        args = takeJobs(args);
+        if (args == null) {
+            return;
+        }
         String command = getCommand(args[0]);
         if (command == null) {
             return;
@@ -22,6 +29,11 @@ public class Main {
             System.out.println("Not in an initialized Gitlet directory.");
             return;
         }
+        if (!command.equals("migrate") && gitlet.needsMigration()) {
+            System.out.println("Please run migrate to upgrade "
+                    + "this repository.");
+            return;
+        }
         String filename = "";
         switch (command) {
         case "add":
@@ -40,16 +52,14 @@ public class Main {
             checkout(gitlet, args);
             break;
         case "log":
-            gitlet.log();
+        case "global-log":
+            log(gitlet, command, args);
             break;
         case "status":
             gitlet.getStatus();
             break;
-        case "global-log":
-            gitlet.globalLog();
-            break;
         case "find":
-            gitlet.find(args[1]);
+            find(gitlet, args);
             break;
         case "branch":
             gitlet.createBranch(args[1]);
@@ -57,15 +67,34 @@ public class Main {
         case "rm-branch":
             gitlet.removeBranch(args[1]);
             break;
+        case "pack-refs":
+            gitlet.packRefs();
+            break;
+        case "repack":
+            gitlet.repack();
+            break;
+        case "monitor":
+            gitlet.monitor();
+            break;
+        case "gc":
+            gc(gitlet, args);
+            break;
+        case "migrate":
+            gitlet.migrate();
+            break;
         case "reset":
             gitlet.reset(args[1]);
             break;
         case "merge":
             gitlet.merge(args[1]);
             break;
+        case "sparse-checkout":
+            sparseCheckout(gitlet, args);
+            break;
         default:
             System.out.println("No command with that name exists.");
         }
+        gitlet.saveStatCache();
     }
 
     /**
@@ -82,6 +111,96 @@ public class Main {
         return command;
     }
 
+    /** Apply and drop a --jobs=N option, given right after the command,
+     * that caps the number of threads used to hash working files. Later
+     * arguments are operands, such as a commit message or a file name,
+     * and are never taken for the option.
+     * @param args the command line.
+     * @return the command line without the option, or null if the option
+     * is malformed.
+     * **/
+    private static String[] takeJobs(String[] args) {
+        if (args.length < 2 || !args[1].startsWith("--jobs=")) {
+            return args;
+        }
+        if (!args[1].matches("--jobs=[1-9]\\d{0,3}")) {
+            System.out.println("Incorrect operands.");
+            return null;
+        }
+        Gitlet.setJobs(Integer.parseInt(args[1].substring(
+                "--jobs=".length())));
+        ArrayList<String> rest = new ArrayList<>(Arrays.asList(args));
+        rest.remove(1);
+        return rest.toArray(new String[0]);
+    }
+
+    /** Run gc, with the grace period given as --grace=SECONDS or the
+     * default one.
+     * @param gitlet the gitlet instance
+     * @param args inputs for gc
+     * **/
+    private static void gc(Gitlet gitlet, String[] args) {
+        long grace = Gitlet.GC_GRACE;
+        if (args.length > 1) {
+            if (!args[1].matches("--grace=\\d+")) {
+                System.out.println("Incorrect operands.");
+                return;
+            }
+            grace = Long.parseLong(args[1].substring("--grace=".length()));
+        }
+        gitlet.gc(grace);
+    }
+
+    /** Run log or global-log with the options of a LogFilter.
+     * @param gitlet the gitlet instance
+     * @param command log or global-log
+     * @param args inputs for the command
+     * **/
+    private static void log(Gitlet gitlet, String command, String[] args) {
+        LogFilter filter = LogFilter.parse(args, 1);
+        if (filter == null) {
+            System.out.println("Incorrect operands.");
+        } else if (command.equals("log")) {
+            gitlet.log(filter);
+        } else {
+            gitlet.globalLog(filter);
+        }
+    }
+
+    /** Run find, either for an exact message or, as find --grep TEXT,
+     * for the messages containing TEXT.
+     * @param gitlet the gitlet instance
+     * @param args inputs for find
+     * **/
+    private static void find(Gitlet gitlet, String[] args) {
+        if (args.length == 3 && args[1].equals("--grep")) {
+            gitlet.findContaining(args[2]);
+        } else if (args.length == 2) {
+            gitlet.find(args[1]);
+        } else {
+            System.out.println("Incorrect operands.");
+        }
+    }
+
+    /** Set, list or drop the paths of a sparse checkout, as
+     * sparse-checkout set PATTERN..., sparse-checkout list or
+     * sparse-checkout disable.
+     * @param gitlet the gitlet instance
+     * @param args inputs for sparse-checkout
+     * **/
+    private static void sparseCheckout(Gitlet gitlet, String[] args) {
+        String sub = args.length > 1 ? args[1] : "";
+        if (sub.equals("set") && args.length > 2) {
+            gitlet.setSparse(Arrays.asList(args).subList(2, args.length));
+        } else if (sub.equals("disable") && args.length == 2) {
+            gitlet.setSparse(new ArrayList<>());
+        } else if (sub.equals("list") && args.length == 2) {
+            gitlet.listSparse();
+        } else {
+            System.out.println("Incorrect operands.");
+        }
+    }
+
     /** Manage checkout function for gitlet.
      * @param gitlet the gitlet instance
      * @param args inputs for checkout
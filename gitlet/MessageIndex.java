@@ -0,0 +1,598 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** Index of commit messages, so that find never reads a commit. The
+ * index file is a log: a magic number followed by one record per commit,
+ * its binary id and its message, appended whenever a commit is written.
+ * Exact matches are answered from a message table written next to it and
+ * memory-mapped: the offset in the log of every record, sorted by a hash
+ * of its message, then the ids of the logged commits, sorted, so that a
+ * lookup is a binary search and a read of the records it finds. Records
+ * appended since the table was written are read in full, and the table
+ * is written again once there are many of them. Searches load the whole
+ * log into an inverted table from each word to the distinct messages
+ * holding it. A missing index, or one that lacks a branch head, is
+ * rebuilt from the commits in the object store; gc rebuilds it so that
+ * the commits it deletes are dropped. A torn record at the tail is
+ * ignored, and cut off before the next record is appended.
+ * @author Vinh Bui
+ * **/
+class MessageIndex {
+
+    /** Create an empty index; only called by init, so that every commit
+     * of a new repository is indexed as it is written. **/
+    static void create() {
+        write(new LinkedHashMap<>());
+    }
+
+    /** Record the message of a commit, unless there is no index yet, in
+     * which case the next search builds it from every commit. The records
+     * appended since the message table was written are read first, and a
+     * torn record after them is cut off, so that the new record starts
+     * where a reader expects it. The table is written again once there
+     * are many such records, which keeps that read short.
+     * @param id the commit id.
+     * @param message its message.
+     * **/
+    static void add(String id, String message) {
+        File file = indexFile();
+        if (!file.isFile()) {
+            return;
+        }
+        Table table = Table.open();
+        long[] tail = tailEnd(file, table == null ? Integer.BYTES
+                : table.covered());
+        try (RandomAccessFile log = new RandomAccessFile(file, "rw")) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writeRecord(new DataOutputStream(bytes), id, message);
+            log.setLength(tail[0]);
+            log.seek(tail[0]);
+            log.write(bytes.toByteArray());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (tail[1] >= TABLE_REFRESH) {
+            writeTable(Collections.emptyList());
+        }
+    }
+
+    /** Find the end of the last complete record of the log.
+     * @param log the log.
+     * @param start the offset of a record to read from.
+     * @return the offset after the last complete record, and the number
+     * of records read.
+     * **/
+    private static long[] tailEnd(File log, long start) {
+        long end = start;
+        long count = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(log)))) {
+            in.skipNBytes(start);
+            byte[] id = new byte[Utils.UID_LENGTH / 2];
+            for (byte[] text = readRecord(in, id, log.length());
+                 text != null; text = readRecord(in, id, log.length())) {
+                end += id.length + Integer.BYTES + text.length;
+                count += 1;
+            }
+        } catch (EOFException excp) {
+            return new long[] {Math.min(end, log.length()), count};
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new long[] {end, count};
+    }
+
+    /** Read the index, rebuilding it first if it is missing or lacks any
+     * of the commits REQUIRED.
+     * @param required ids of commits known to exist, such as the branch
+     *                 heads.
+     * @return the index.
+     * **/
+    static MessageIndex load(Collection<String> required) {
+        MessageIndex index = read();
+        if (index == null || !index._ids.containsAll(required)) {
+            index = rebuild();
+        }
+        return index;
+    }
+
+    /** Index every commit in the object store again. The commits are read
+     * once each, and the result replaces the index file.
+     * @return the new index.
+     * **/
+    static MessageIndex rebuild() {
+        LinkedHashMap<String, String> messages = new LinkedHashMap<>();
+        for (String id : ObjectStore.ids(ObjectStore.COMMIT)) {
+            messages.put(id, Commit.fromFile(id).getMessage());
+        }
+        write(messages);
+        MessageIndex index = new MessageIndex();
+        for (Map.Entry<String, String> e : messages.entrySet()) {
+            index.put(e.getKey(), e.getValue());
+        }
+        return index;
+    }
+
+    /** Return the commits whose message is MESSAGE, reading only the
+     * records of the log that the message table points to and those
+     * appended since it was written. The table is written first if there
+     * is none, and the index rebuilt if it lacks any of the commits
+     * REQUIRED.
+     * @param message the message.
+     * @param required ids of commits known to exist, such as the branch
+     *                 heads.
+     * @return the commit ids, in the order the commits were indexed.
+     * **/
+    static List<String> exact(String message,
+                              Collection<String> required) {
+        Table table = Table.open();
+        if (table == null) {
+            writeTable(required);
+            table = Table.open();
+        }
+        byte[] wanted = message.getBytes(StandardCharsets.UTF_8);
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        HashSet<String> tail = new HashSet<>();
+        try (RandomAccessFile in = new RandomAccessFile(indexFile(), "r")) {
+            byte[] id = new byte[Utils.UID_LENGTH / 2];
+            for (long offset : table.offsets(hash(wanted))) {
+                in.seek(offset);
+                if (Arrays.equals(wanted, readRecord(in, id))) {
+                    result.add(Pack.toHex(id));
+                }
+            }
+            in.seek(table.covered());
+            for (byte[] text = readRecord(in, id); text != null;
+                 text = readRecord(in, id)) {
+                tail.add(Pack.toHex(id));
+                if (Arrays.equals(wanted, text)) {
+                    result.add(Pack.toHex(id));
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        for (String id : required) {
+            if (!tail.contains(id) && !table.contains(id)) {
+                rebuild();
+                return exact(message, Collections.emptyList());
+            }
+        }
+        if (tail.size() > TABLE_REFRESH) {
+            writeTable(Collections.emptyList());
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Return the commits whose message contains TEXT, ignoring case.
+     * The words of TEXT that cannot be cut by the match, all but the
+     * first and the last, must be words of the message, so only the
+     * messages holding the rarest of them are compared; when TEXT has no
+     * such word, every distinct message is compared.
+     * @param text the text to look for.
+     * @return the commit ids, grouped by message, in the order the
+     * messages were first indexed.
+     * **/
+    List<String> search(String text) {
+        String query = text.toLowerCase(Locale.ROOT);
+        List<String> words = words(query);
+        if (!words.isEmpty()
+                && Character.isLetterOrDigit(query.charAt(0))) {
+            words.remove(0);
+        }
+        if (!words.isEmpty() && Character.isLetterOrDigit(
+                query.charAt(query.length() - 1))) {
+            words.remove(words.size() - 1);
+        }
+        Collection<String> candidates = _byMessage.keySet();
+        for (String word : words) {
+            Set<String> messages = _byWord.getOrDefault(word,
+                    Collections.emptySet());
+            if (messages.size() < candidates.size()) {
+                candidates = messages;
+            }
+        }
+        ArrayList<String> result = new ArrayList<>();
+        for (String message : candidates) {
+            if (message.toLowerCase(Locale.ROOT).contains(query)) {
+                result.addAll(_byMessage.get(message));
+            }
+        }
+        return result;
+    }
+
+    /** Write the message table from the whole log, rebuilding the index
+     * first if it is missing or lacks any of the commits REQUIRED.
+     * @param required ids of commits known to exist.
+     * **/
+    private static void writeTable(Collection<String> required) {
+        File log = indexFile();
+        ArrayList<long[]> entries = new ArrayList<>();
+        TreeSet<String> ids = new TreeSet<>();
+        long covered = Integer.BYTES;
+        if (log.isFile()) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(log)))) {
+                if (in.readInt() == MAGIC) {
+                    byte[] id = new byte[Utils.UID_LENGTH / 2];
+                    for (byte[] text = readRecord(in, id, log.length());
+                         text != null;
+                         text = readRecord(in, id, log.length())) {
+                        entries.add(new long[] {hash(text), covered});
+                        ids.add(Pack.toHex(id));
+                        covered += id.length + Integer.BYTES + text.length;
+                    }
+                } else {
+                    ids = null;
+                }
+            } catch (EOFException excp) {
+                ids = null;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        if (!log.isFile() || ids == null || !ids.containsAll(required)) {
+            rebuild();
+            writeTable(Collections.emptyList());
+            return;
+        }
+        entries.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0])
+                : Long.compare(a[1], b[1]));
+        File temp = null;
+        try {
+            File file = tableFile();
+            temp = File.createTempFile("messages", ".tmp",
+                    file.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(
+                            temp.toPath())))) {
+                out.writeInt(TABLE_MAGIC);
+                out.writeLong(covered);
+                out.writeInt(entries.size());
+                out.writeInt(ids.size());
+                for (long[] entry : entries) {
+                    out.writeLong(entry[0]);
+                    out.writeLong(entry[1]);
+                }
+                for (String id : ids) {
+                    out.write(Pack.toBytes(id));
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /** Read one record of the log.
+     * @param in the log, positioned at the record.
+     * @param id receives the binary commit id.
+     * @param limit the length of the log.
+     * @return the UTF-8 message, or null at the end of the log or at a
+     * torn record.
+     * @throws IOException on failure.
+     * **/
+    private static byte[] readRecord(DataInput in, byte[] id, long limit)
+            throws IOException {
+        try {
+            in.readFully(id);
+            int length = in.readInt();
+            if (length < 0 || length > limit) {
+                return null;
+            }
+            byte[] message = new byte[length];
+            in.readFully(message);
+            return message;
+        } catch (EOFException excp) {
+            return null;
+        }
+    }
+
+    /** Read one record of the log.
+     * @param in the log, positioned at the record.
+     * @param id receives the binary commit id.
+     * @return the UTF-8 message, or null at the end of the log or at a
+     * torn record.
+     * @throws IOException on failure.
+     * **/
+    private static byte[] readRecord(RandomAccessFile in, byte[] id)
+            throws IOException {
+        return readRecord(in, id, in.length());
+    }
+
+    /** Hash a message for the message table, with 64-bit FNV-1a.
+     * @param message the UTF-8 message.
+     * @return the hash.
+     * **/
+    private static long hash(byte[] message) {
+        long hash = FNV_OFFSET;
+        for (byte b : message) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /** Read the index file.
+     * @return the index, or null if there is no valid index file.
+     * **/
+    private static MessageIndex read() {
+        File file = indexFile();
+        if (!file.isFile()) {
+            return null;
+        }
+        MessageIndex index = new MessageIndex();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            byte[] id = new byte[Utils.UID_LENGTH / 2];
+            for (byte[] message = readRecord(in, id, file.length());
+                 message != null;
+                 message = readRecord(in, id, file.length())) {
+                index.put(Pack.toHex(id),
+                        new String(message, StandardCharsets.UTF_8));
+            }
+            return index;
+        } catch (EOFException excp) {
+            return index;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Replace the index file, dropping the message table.
+     * @param messages mapping from commit id to message.
+     * **/
+    private static void write(Map<String, String> messages) {
+        tableFile().delete();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(
+                        indexFile())))) {
+            out.writeInt(MAGIC);
+            for (Map.Entry<String, String> e : messages.entrySet()) {
+                writeRecord(out, e.getKey(), e.getValue());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write the record of one commit.
+     * @param out the index file.
+     * @param id the commit id.
+     * @param message its message.
+     * @throws IOException on failure.
+     * **/
+    private static void writeRecord(DataOutputStream out, String id,
+                                    String message) throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        out.write(Pack.toBytes(id));
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Add a commit to the tables.
+     * @param id the commit id.
+     * @param message its message.
+     * **/
+    private void put(String id, String message) {
+        _ids.add(id);
+        Set<String> ids = _byMessage.get(message);
+        if (ids == null) {
+            ids = new LinkedHashSet<>();
+            _byMessage.put(message, ids);
+            for (String word : words(message.toLowerCase(Locale.ROOT))) {
+                _byWord.computeIfAbsent(word, w -> new LinkedHashSet<>())
+                        .add(message);
+            }
+        }
+        ids.add(id);
+    }
+
+    /** Split TEXT into words, runs of letters and digits.
+     * @param text the text.
+     * @return the words, in order.
+     * **/
+    private static List<String> words(String text) {
+        ArrayList<String> result = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i += 1) {
+            boolean inWord = i < text.length()
+                    && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                result.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    /** Return the index file. **/
+    private static File indexFile() {
+        return new File(Gitlet.getDefaultFolder() + "/messages");
+    }
+
+    /** Return the message table file. **/
+    private static File tableFile() {
+        return new File(Gitlet.getDefaultFolder() + "/message-table");
+    }
+
+    /** The memory-mapped message table: a magic number, the length of
+     * the log it covers, the number of records and of distinct ids, then
+     * the hash and log offset of every record, sorted, and the binary ids,
+     * sorted. **/
+    private static class Table {
+
+        /** Wrap the content of a table file.
+         * @param data the mapped file.
+         * **/
+        private Table(MappedByteBuffer data) {
+            _data = data;
+            _covered = data.getLong(Integer.BYTES);
+            _entries = data.getInt(Integer.BYTES + Long.BYTES);
+            _ids = data.getInt(2 * Integer.BYTES + Long.BYTES);
+        }
+
+        /** Open the message table, if there is a valid one for the log.
+         * @return the table, or null.
+         * **/
+        static Table open() {
+            File file = tableFile();
+            if (!file.isFile()) {
+                return null;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.READ)) {
+                MappedByteBuffer data = channel.map(
+                        FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (data.capacity() < HEADER_SIZE
+                        || data.getInt(0) != TABLE_MAGIC) {
+                    return null;
+                }
+                Table table = new Table(data);
+                if (table._covered > indexFile().length()
+                        || data.capacity() != HEADER_SIZE
+                        + (long) table._entries * ENTRY_SIZE
+                        + (long) table._ids * (Utils.UID_LENGTH / 2)) {
+                    return null;
+                }
+                return table;
+            } catch (IOException excp) {
+                return null;
+            }
+        }
+
+        /** Return the length of the log the table covers. **/
+        long covered() {
+            return _covered;
+        }
+
+        /** Return the log offsets of the records whose message has a
+         * hash, in log order.
+         * @param hash the hash of the message.
+         * **/
+        List<Long> offsets(long hash) {
+            int low = 0;
+            int high = _entries;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (Long.compare(entryHash(mid), hash) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            ArrayList<Long> result = new ArrayList<>();
+            for (int i = low; i < _entries && entryHash(i) == hash;
+                 i += 1) {
+                result.add(_data.getLong(HEADER_SIZE + i * ENTRY_SIZE
+                        + Long.BYTES));
+            }
+            return result;
+        }
+
+        /** Check whether the table covers a commit.
+         * @param id the commit id.
+         * @return true if the id is in the table.
+         * **/
+        boolean contains(String id) {
+            byte[] wanted = Pack.toBytes(id);
+            byte[] other = new byte[wanted.length];
+            int base = HEADER_SIZE + _entries * ENTRY_SIZE;
+            int low = 0;
+            int high = _ids - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                _data.get(base + mid * wanted.length, other);
+                int cmp = Arrays.compareUnsigned(other, wanted);
+                if (cmp == 0) {
+                    return true;
+                } else if (cmp < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return false;
+        }
+
+        /** Return the hash of entry I.
+         * @param i the entry number.
+         * **/
+        private long entryHash(int i) {
+            return _data.getLong(HEADER_SIZE + i * ENTRY_SIZE);
+        }
+
+        /** The mapped file. **/
+        private final MappedByteBuffer _data;
+        /** Length of the log covered. **/
+        private final long _covered;
+        /** Number of record entries. **/
+        private final int _entries;
+        /** Number of ids. **/
+        private final int _ids;
+    }
+
+    /** Magic number at the start of the index file, "GLMI". **/
+    private static final int MAGIC = 0x474C4D49;
+    /** Magic number at the start of the message table, "GLMT". **/
+    private static final int TABLE_MAGIC = 0x474C4D54;
+    /** Size of the header of the message table. **/
+    private static final int HEADER_SIZE = 3 * Integer.BYTES + Long.BYTES;
+    /** Size of an entry of the message table: a hash and an offset. **/
+    private static final int ENTRY_SIZE = 2 * Long.BYTES;
+    /** The message table is written again once more records than this
+     * were appended to the log after it. **/
+    private static final int TABLE_REFRESH = 1000;
+    /** Offset basis of 64-bit FNV-1a. **/
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    /** Prime of 64-bit FNV-1a. **/
+    private static final long FNV_PRIME = 0x100000001b3L;
+    /** Every commit id indexed. **/
+    private final Set<String> _ids = new HashSet<>();
+    /** Commit ids by message, in the order they were indexed. **/
+    private final LinkedHashMap<String, Set<String>> _byMessage =
+            new LinkedHashMap<>();
+    /** Distinct messages by lowercase word. **/
+    private final HashMap<String, Set<String>> _byWord = new HashMap<>();
+}
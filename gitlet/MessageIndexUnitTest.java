@@ -0,0 +1,93 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+/** Unit test for the message index.
+ * @author Vinh Bui
+ * **/
+public class MessageIndexUnitTest {
+
+    @Test
+    public void testExactAndSearch() {
+        Gitlet.setDefaultFolder("testing/messages-gitlet");
+        new File("testing/messages-gitlet").mkdirs();
+        MessageIndex.create();
+        MessageIndex.add("1111111111111111111111111111111111111111",
+                "Fix the parser");
+        MessageIndex.add("2222222222222222222222222222222222222222",
+                "prefix the wug");
+        MessageIndex.add("3333333333333333333333333333333333333333",
+                "Fix the parser");
+        MessageIndex index = MessageIndex.load(Collections.emptyList());
+        assertEquals(Arrays.asList(
+                "1111111111111111111111111111111111111111",
+                "3333333333333333333333333333333333333333"),
+                MessageIndex.exact("Fix the parser",
+                        Collections.emptyList()));
+        assertTrue(MessageIndex.exact("fix the parser",
+                Collections.emptyList()).isEmpty());
+        assertEquals(3, index.search("fix").size());
+        assertEquals(Arrays.asList(
+                "2222222222222222222222222222222222222222"),
+                index.search("x THE w"));
+        assertTrue(index.search("the parsers").isEmpty());
+    }
+
+    @Test
+    public void testExactReadsTableAndTail() {
+        Gitlet.setDefaultFolder("testing/message-table-gitlet");
+        new File("testing/message-table-gitlet").mkdirs();
+        MessageIndex.create();
+        MessageIndex.add("1111111111111111111111111111111111111111",
+                "same");
+        MessageIndex.add("2222222222222222222222222222222222222222",
+                "other");
+        assertEquals(Arrays.asList(
+                "1111111111111111111111111111111111111111"),
+                MessageIndex.exact("same", Collections.emptyList()));
+        assertTrue(new File(
+                "testing/message-table-gitlet/message-table").isFile());
+        MessageIndex.add("3333333333333333333333333333333333333333",
+                "same");
+        assertEquals(Arrays.asList(
+                "1111111111111111111111111111111111111111",
+                "3333333333333333333333333333333333333333"),
+                MessageIndex.exact("same", Arrays.asList(
+                        "3333333333333333333333333333333333333333")));
+        assertEquals(Arrays.asList(
+                "2222222222222222222222222222222222222222"),
+                MessageIndex.exact("other", Collections.emptyList()));
+        assertTrue(MessageIndex.exact("none",
+                Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void testAddAfterTornRecord() throws IOException {
+        Gitlet.setDefaultFolder("testing/message-torn-gitlet");
+        new File("testing/message-torn-gitlet").mkdirs();
+        MessageIndex.create();
+        MessageIndex.add("1111111111111111111111111111111111111111",
+                "same");
+        assertEquals(1, MessageIndex.exact("same",
+                Collections.emptyList()).size());
+        try (FileOutputStream out = new FileOutputStream(
+                "testing/message-torn-gitlet/messages", true)) {
+            out.write(new byte[] {0x22, 0x22, 0x22, 0x22});
+        }
+        MessageIndex.add("3333333333333333333333333333333333333333",
+                "same");
+        assertEquals(Arrays.asList(
+                "1111111111111111111111111111111111111111",
+                "3333333333333333333333333333333333333333"),
+                MessageIndex.exact("same", Arrays.asList(
+                        "3333333333333333333333333333333333333333")));
+        assertEquals(2, MessageIndex.load(Collections.emptyList())
+                .search("same").size());
+    }
+}
@@ -0,0 +1,317 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/** Background watcher that tells commands which working files changed.
+ * The monitor runs as its own process, holding a lock on
+ * .gitlet/monitor.lock, and appends the name of every file it sees
+ * change to .gitlet/monitor-log. The log starts with a magic number and
+ * a session number, which changes whenever the log is restarted, and
+ * holds records made of an operation byte and a name.
+ * Subdirectories are watched as they appear, and the files already in a
+ * new subdirectory are logged along with it.
+ * A command that wants to know what changed creates a cookie file in
+ * .gitlet and waits for the monitor to log it; every change made before
+ * the cookie is then in the log before it. The changes between the
+ * point the StatCache was last brought up to date with and the cookie
+ * are the only files the command has to look at. If no monitor runs,
+ * the session changed, the watcher overflowed or the cookie does not
+ * show up in time, the command scans the whole directory instead.
+ * @author Vinh Bui
+ * **/
+class Monitor {
+
+    /** Watch DIR and log its changes until the process is killed or DIR
+     * goes away.
+     * @param dir the working directory.
+     * **/
+    static void run(File dir) {
+        File folder = new File(Gitlet.getDefaultFolder());
+        try (FileChannel channel = FileChannel.open(lockFile().toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock();
+             WatchService watcher = FileSystems.getDefault()
+                     .newWatchService()) {
+            if (lock == null) {
+                System.out.println("A monitor is already running.");
+                return;
+            }
+            HashMap<WatchKey, String> dirs = new HashMap<>();
+            DataOutputStream log = startSession();
+            watch(watcher, dir, "", dirs, null);
+            WatchKey cookies = folder.toPath().register(watcher,
+                    ENTRY_CREATE);
+            while (true) {
+                WatchKey key = watcher.take();
+                String prefix = dirs.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    String name = event.context() == null ? ""
+                            : event.context().toString();
+                    if (event.kind() == OVERFLOW) {
+                        writeRecord(log, OVERFLOWED, "");
+                    } else if (key == cookies) {
+                        if (name.startsWith(COOKIE)) {
+                            writeRecord(log, SYNCED, name);
+                        }
+                    } else if (prefix != null) {
+                        String path = prefix + name;
+                        File file = new File(dir, path);
+                        writeRecord(log, CHANGED, path);
+                        if (event.kind() == ENTRY_CREATE
+                                && file.isDirectory()
+                                && !path.equals(folder.getName())) {
+                            watch(watcher, file, path + "/", dirs, log);
+                        }
+                    }
+                }
+                log.flush();
+                if (!key.reset()) {
+                    dirs.remove(key);
+                    if (prefix == null || prefix.isEmpty()) {
+                        log.close();
+                        return;
+                    }
+                }
+                if (log.size() > MAX_LOG_SIZE) {
+                    log.close();
+                    log = startSession();
+                }
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Watch DIR and its subdirectories, except the repository folder.
+     * When LOG is given, the files found are logged as changed, since
+     * they may have been created before the watch started.
+     * @param watcher the watch service.
+     * @param dir the directory.
+     * @param prefix the path of DIR followed by '/', or "".
+     * @param dirs receives the path prefix of every watched directory.
+     * @param log the log, or null.
+     * @throws IOException on failure.
+     * **/
+    private static void watch(WatchService watcher, File dir, String prefix,
+                              Map<WatchKey, String> dirs,
+                              DataOutputStream log) throws IOException {
+        dirs.put(dir.toPath().register(watcher, ENTRY_CREATE, ENTRY_DELETE,
+                ENTRY_MODIFY), prefix);
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String path = prefix + file.getName();
+            if (file.isDirectory()) {
+                if (!path.equals(Gitlet.getDefaultFolder())) {
+                    watch(watcher, file, path + "/", dirs, log);
+                }
+            } else if (log != null) {
+                writeRecord(log, CHANGED, path);
+            }
+        }
+    }
+
+    /** Bring CACHE up to date with the monitor. Afterwards the cache
+     * knows which working files changed since the last time, and the
+     * names of the working files are updated if they were known; when
+     * the monitor cannot tell, the cache is told that any file may have
+     * changed and the names are forgotten.
+     * @param cache the stat cache of the working directory.
+     * @param dir the working directory.
+     * @param ignore the ignore rules; ignored files are left out of the
+     *               names.
+     * **/
+    static void poll(StatCache cache, File dir, PathRules ignore) {
+        if (!isRunning()) {
+            cache.setCheckpoint(0, 0, null);
+            cache.setNames(null);
+            return;
+        }
+        String cookie = COOKIE + ProcessHandle.current().pid() + "-"
+                + System.nanoTime();
+        File cookieFile = new File(Gitlet.getDefaultFolder(), cookie);
+        try {
+            cookieFile.createNewFile();
+            long deadline = System.currentTimeMillis() + SYNC_TIMEOUT;
+            while (!readLog(cache, dir, ignore, cookie)) {
+                if (System.currentTimeMillis() > deadline) {
+                    cache.setCheckpoint(0, 0, null);
+                    cache.setNames(null);
+                    return;
+                }
+                Thread.sleep(SYNC_INTERVAL);
+            }
+        } catch (IOException excp) {
+            cache.setCheckpoint(0, 0, null);
+            cache.setNames(null);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw Utils.error("Interrupted while waiting for the monitor.");
+        } finally {
+            cookieFile.delete();
+        }
+    }
+
+    /** Read the log up to COOKIE and update CACHE with what it says.
+     * A change to the ignore file makes the names unknown, since it may
+     * change which files are listed.
+     * @param cache the stat cache of the working directory.
+     * @param dir the working directory.
+     * @param ignore the ignore rules.
+     * @param cookie name of the cookie file to wait for.
+     * @return false if the cookie is not logged yet.
+     * @throws IOException if the log cannot be read.
+     * **/
+    private static boolean readLog(StatCache cache, File dir,
+                                   PathRules ignore, String cookie)
+            throws IOException {
+        byte[] data = Files.readAllBytes(logFile().toPath());
+        ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+        try (DataInputStream in = new DataInputStream(bytes)) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("bad monitor log");
+            }
+            long session = in.readLong();
+            long offset = HEADER_SIZE;
+            boolean known = session == cache.getSession()
+                    && cache.getOffset() >= HEADER_SIZE;
+            if (known) {
+                in.skipNBytes(cache.getOffset() - HEADER_SIZE);
+            }
+            HashSet<String> changed = new HashSet<>();
+            while (true) {
+                byte op = in.readByte();
+                String name = in.readUTF();
+                offset = data.length - bytes.available();
+                if (op == CHANGED) {
+                    changed.add(name);
+                } else if (op == OVERFLOWED) {
+                    known = false;
+                } else if (op == SYNCED && name.equals(cookie)) {
+                    break;
+                }
+            }
+            TreeSet<String> names = cache.getNames();
+            if (known && names != null
+                    && !changed.contains(Gitlet.IGNORE_FILE)) {
+                for (String name : changed) {
+                    File file = new File(dir, name);
+                    if (file.isFile() && !ignore.matches(name)) {
+                        names.add(name);
+                    } else {
+                        names.remove(name);
+                        names.subSet(name + "/", name + "0").clear();
+                    }
+                }
+                cache.setNames(names);
+            } else {
+                cache.setNames(null);
+            }
+            cache.setCheckpoint(session, offset, known ? changed : null);
+            return true;
+        } catch (EOFException excp) {
+            return false;
+        }
+    }
+
+    /** Check whether a monitor holds the lock.
+     * @return true if a monitor is running.
+     * **/
+    private static boolean isRunning() {
+        if (!lockFile().isFile()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(lockFile().toPath(),
+                StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            return lock == null;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Start a new, empty log with a new session number.
+     * @return the open log.
+     * @throws IOException on failure.
+     * **/
+    private static DataOutputStream startSession() throws IOException {
+        DataOutputStream log = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(logFile())));
+        _session = Math.max(_session + 1, System.currentTimeMillis());
+        log.writeInt(MAGIC);
+        log.writeLong(_session);
+        log.flush();
+        return log;
+    }
+
+    /** Append a record to the log.
+     * @param log the log.
+     * @param op the operation.
+     * @param name the file name.
+     * @throws IOException on failure.
+     * **/
+    private static void writeRecord(DataOutputStream log, byte op,
+                                    String name) throws IOException {
+        log.writeByte(op);
+        log.writeUTF(name);
+    }
+
+    /** Return the lock file held by a running monitor. **/
+    private static File lockFile() {
+        return new File(Gitlet.getDefaultFolder() + "/monitor.lock");
+    }
+
+    /** Return the log of the monitor. **/
+    private static File logFile() {
+        return new File(Gitlet.getDefaultFolder() + "/monitor-log");
+    }
+
+    /** Magic number at the start of the log, "GLMN". **/
+    private static final int MAGIC = 0x474C4D4E;
+    /** Size of the log header. **/
+    private static final long HEADER_SIZE = 12;
+    /** Record naming a working file that changed. **/
+    private static final byte CHANGED = 'C';
+    /** Record saying that events were lost. **/
+    private static final byte OVERFLOWED = 'O';
+    /** Record naming a cookie file that was seen. **/
+    private static final byte SYNCED = 'S';
+    /** Prefix of cookie file names. **/
+    private static final String COOKIE = "monitor-cookie-";
+    /** The log is restarted once it grows past this many bytes. **/
+    private static final long MAX_LOG_SIZE = 1 << 20;
+    /** Milliseconds to wait for the monitor to log a cookie. **/
+    private static final long SYNC_TIMEOUT = 1000;
+    /** Milliseconds between two reads of the log while waiting. **/
+    private static final long SYNC_INTERVAL = 2;
+    /** Session number of the current log, in the monitor process. **/
+    private static long _session;
+}
@@ -0,0 +1,162 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A cache of object contents by id, bounded by their total size. The
+ * least recently used contents are dropped first once the total passes
+ * the capacity, and a content larger than a quarter of the capacity is
+ * never kept, so that one large object cannot flush everything else.
+ * Objects never change once written, so a cached content is always right
+ * until the object is deleted; whoever deletes objects clears the cache.
+ * A blob stored as chunks is kept with its chunk list. It counts its
+ * hits and misses. All methods are safe to call from several threads.
+ * @author Vinh Bui
+ * **/
+class ObjectCache {
+
+    /** Create an empty cache.
+     * @param capacity the most bytes of content to keep.
+     * **/
+    ObjectCache(long capacity) {
+        _capacity = capacity;
+    }
+
+    /** Look up the content of an object, counting a hit or a miss.
+     * @param id the object id.
+     * @return the content, or null if it is not cached.
+     * **/
+    synchronized byte[] get(String id) {
+        Entry entry = lookup(id);
+        return entry == null ? null : entry.getContent();
+    }
+
+    /** Look up an object, counting a hit or a miss.
+     * @param id the object id.
+     * @return its content and chunk list, or null if it is not cached.
+     * **/
+    synchronized Entry lookup(String id) {
+        Entry entry = _contents.get(id);
+        if (entry == null) {
+            _misses += 1;
+        } else {
+            _hits += 1;
+        }
+        return entry;
+    }
+
+    /** Check whether the content of an object is cached, without counting
+     * it or making it more recent.
+     * @param id the object id.
+     * @return true if it is cached.
+     * **/
+    synchronized boolean contains(String id) {
+        return _contents.containsKey(id);
+    }
+
+    /** Keep the content of an object, dropping the least recently used
+     * contents as needed.
+     * @param id the object id.
+     * @param content its content, which must not be modified afterwards.
+     * **/
+    synchronized void put(String id, byte[] content) {
+        put(id, content, null);
+    }
+
+    /** Keep the content of an object along with the chunk list it is
+     * stored as, dropping the least recently used contents as needed.
+     * @param id the object id.
+     * @param content its content, which must not be modified afterwards.
+     * @param chunkList the encoded chunk list of a blob stored as chunks,
+     *                  or null.
+     * **/
+    synchronized void put(String id, byte[] content, byte[] chunkList) {
+        Entry entry = new Entry(content, chunkList);
+        if (entry.weight() > _capacity / MAX_SHARE) {
+            return;
+        }
+        Entry old = _contents.put(id, entry);
+        if (old != null) {
+            _size -= old.weight();
+        }
+        _size += entry.weight();
+        Iterator<Entry> oldest = _contents.values().iterator();
+        while (_size > _capacity && oldest.hasNext()) {
+            _size -= oldest.next().weight();
+            oldest.remove();
+        }
+    }
+
+    /** Drop every content, keeping the counters. **/
+    synchronized void clear() {
+        _contents.clear();
+        _size = 0;
+    }
+
+    /** Return the number of lookups that found their object. **/
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /** Return the number of lookups that did not find their object. **/
+    synchronized long misses() {
+        return _misses;
+    }
+
+    /** Return the total size of the cached entries, in bytes. **/
+    synchronized long size() {
+        return _size;
+    }
+
+    /** A cached object: its content and, for a blob stored as chunks,
+     * its chunk list, so that a stream opened from the cache still tells
+     * which chunks the blob needs. **/
+    static final class Entry {
+        /** A cached object.
+         * @param content the content.
+         * @param chunkList the encoded chunk list, or null.
+         * **/
+        Entry(byte[] content, byte[] chunkList) {
+            _content = content;
+            _chunkList = chunkList;
+        }
+
+        /** Return the content. **/
+        byte[] getContent() {
+            return _content;
+        }
+
+        /** Return the encoded chunk list, or null if the object is stored
+         * whole. **/
+        byte[] getChunkList() {
+            return _chunkList;
+        }
+
+        /** Return the number of bytes the entry holds. **/
+        long weight() {
+            return _content.length
+                    + (_chunkList == null ? 0 : _chunkList.length);
+        }
+
+        /** The content. **/
+        private final byte[] _content;
+        /** The encoded chunk list, or null. **/
+        private final byte[] _chunkList;
+    }
+
+    /** A content is only kept if it is at most the capacity divided by
+     * this. **/
+    private static final int MAX_SHARE = 4;
+    /** Entries by object id, least recently used first. **/
+    private final Map<String, Entry> _contents =
+            new LinkedHashMap<>(16, 0.75f, true);
+    /** The most bytes of content to keep. **/
+    private final long _capacity;
+    /** Total size of the cached entries. **/
+    private long _size;
+    /** Number of lookups that found their object. **/
+    private long _hits;
+    /** Number of lookups that did not find their object. **/
+    private long _misses;
+}
@@ -0,0 +1,48 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit test for the object cache.
+ * @author Vinh Bui
+ * **/
+public class ObjectCacheUnitTest {
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        ObjectCache cache = new ObjectCache(100);
+        cache.put("a", new byte[20]);
+        cache.put("b", new byte[20]);
+        cache.put("c", new byte[20]);
+        assertNotNull(cache.get("a"));
+        cache.put("d", new byte[25]);
+        cache.put("e", new byte[25]);
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertTrue(cache.size() <= 100);
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    public void testSkipsLargeContents() {
+        ObjectCache cache = new ObjectCache(100);
+        cache.put("big", new byte[26]);
+        assertFalse(cache.contains("big"));
+        cache.put("small", new byte[25]);
+        assertTrue(cache.contains("small"));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testKeepsChunkList() {
+        ObjectCache cache = new ObjectCache(100);
+        byte[] chunkList = new byte[5];
+        cache.put("chunked", new byte[10], chunkList);
+        cache.put("whole", new byte[10]);
+        assertEquals(chunkList, cache.lookup("chunked").getChunkList());
+        assertNull(cache.lookup("whole").getChunkList());
+        assertEquals(25, cache.size());
+    }
+}
@@ -0,0 +1,849 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** The object store, where blobs and commits are kept by id.
+ * An object is either loose, in its own file, or inside a pack (see
+ * Pack). A loose object file starts with a header made of a magic number,
+ * a format version, a type byte and the length of the content, followed
+ * by the content compressed with deflate. Loose files that do not start
+ * with the magic number were written by the first version of gitlet, as
+ * serialized Blob and Commit objects; they are decoded through Legacy.
+ * Loose objects are sharded by the first two characters of their id, as
+ * blobs/ab/cdef..., so that no directory grows past a few thousand
+ * entries. Objects written before sharding, as blobs/abcdef....blob, are
+ * still found.
+ * A large blob may be stored as a list of chunks (see Chunker), marked by
+ * the CHUNK_LIST type byte; opening it as a blob streams its chunks.
+ * @author Vinh Bui
+ * **/
+class ObjectStore {
+
+    /** Type of blob objects. **/
+    static final byte BLOB = 1;
+    /** Type of commit objects. **/
+    static final byte COMMIT = 2;
+    /** Type of tree objects. **/
+    static final byte TREE = 3;
+    /** Type of the chunks of large blobs. **/
+    static final byte CHUNK = 4;
+    /** Type byte of a blob stored as a list of chunks. **/
+    static final byte CHUNK_LIST = 0x20;
+
+    /** Check whether an object is stored, loose or packed.
+     * @param type the object type.
+     * @param id the object id.
+     * @return true if the object exists.
+     * **/
+    static boolean contains(byte type, String id) {
+        return _cache.contains(cacheKey(type, id))
+                || findLoose(type, id) != null || inPacks(id);
+    }
+
+    /** Write a loose object whose content is the file SOURCE.
+     * @param type the object type.
+     * @param id the object id.
+     * @param source the file holding the content.
+     * **/
+    static void write(byte type, String id, File source) {
+        try (InputStream in = Files.newInputStream(source.toPath())) {
+            write(type, id, in, source.length());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write a loose object whose content is CONTENT.
+     * @param type the object type.
+     * @param id the object id.
+     * @param content the content.
+     * **/
+    static void write(byte type, String id, byte[] content) {
+        write(type, id, new ByteArrayInputStream(content), content.length);
+    }
+
+    /** Write a loose object, streaming LENGTH bytes from IN. The object is
+     * written to a temporary file and renamed into place, so readers never
+     * see a partial object. A copy of the object written before sharding
+     * is deleted, so that the object is moved into its shard.
+     * @param type the object type.
+     * @param id the object id.
+     * @param in the content.
+     * @param length number of bytes of content.
+     * **/
+    static void write(byte type, String id, InputStream in, long length) {
+        writeLoose(loosePath(type, id), type, length, in, length);
+        legacyPath(type, id).delete();
+    }
+
+    /** Write a loose blob stored as a list of chunks.
+     * @param id the blob id.
+     * @param length the length of the blob.
+     * @param list the encoded chunk list.
+     * **/
+    static void writeChunkList(String id, long length, byte[] list) {
+        writeLoose(loosePath(BLOB, id), CHUNK_LIST, length,
+                new ByteArrayInputStream(list), list.length);
+        legacyPath(BLOB, id).delete();
+    }
+
+    /** Write a loose object file.
+     * @param file the object file.
+     * @param kind the type byte of the header.
+     * @param length the length in the header.
+     * @param in the content to store.
+     * @param stored number of bytes of IN.
+     * **/
+    private static void writeLoose(File file, byte kind, long length,
+                                   InputStream in, long stored) {
+        File temp = null;
+        try {
+            file.getParentFile().mkdirs();
+            temp = File.createTempFile("obj", ".tmp", file.getParentFile());
+            try (OutputStream out = new BufferedOutputStream(
+                    new FileOutputStream(temp))) {
+                writeHeader(out, kind, length);
+                DeflaterOutputStream deflate = new DeflaterOutputStream(out,
+                        new Deflater(Deflater.DEFAULT_COMPRESSION));
+                long copied = copy(in, deflate);
+                if (copied != stored) {
+                    throw Utils.error("File changed while being stored.");
+                }
+                deflate.finish();
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /** Open an object for reading, wherever it is stored. An object in
+     * the object cache is read from there, but opening an object does not
+     * add it to the cache, so that streaming large blobs keeps it intact.
+     * @param type the object type.
+     * @param id the object id.
+     * @return a stream of the uncompressed content, or null if there is
+     * no such object.
+     * **/
+    static ObjectStream open(byte type, String id) {
+        ObjectCache.Entry cached = _cache.lookup(cacheKey(type, id));
+        if (cached != null) {
+            byte[] content = cached.getContent();
+            return new ObjectStream(new ByteArrayInputStream(content), type,
+                    content.length, cached.getChunkList());
+        }
+        return openStored(type, id);
+    }
+
+    /** Open an object from the loose objects or the packs, bypassing the
+     * object cache.
+     * @param type the object type.
+     * @param id the object id.
+     * @return a stream of the uncompressed content, or null if there is
+     * no such object.
+     * **/
+    private static ObjectStream openStored(byte type, String id) {
+        File file = findLoose(type, id);
+        if (file != null) {
+            return openLoose(file, type);
+        }
+        for (Pack pack : packs()) {
+            ObjectStream in = pack.open(id);
+            if (in != null) {
+                if (in.getType() != type) {
+                    throw Utils.error("Unexpected object %s.", id);
+                }
+                return in;
+            }
+        }
+        return null;
+    }
+
+    /** Read the whole content of an object, through the object cache:
+     * the content is kept there, so reading the same commit, tree, blob
+     * or delta base again in this process is a lookup.
+     * @param type the object type.
+     * @param id the object id.
+     * @return the content, or null if there is no such object.
+     * **/
+    static byte[] read(byte type, String id) {
+        String key = cacheKey(type, id);
+        byte[] content = _cache.get(key);
+        if (content != null) {
+            return content;
+        }
+        try (ObjectStream in = openStored(type, id)) {
+            if (in == null) {
+                return null;
+            }
+            content = in.readAllBytes();
+            _cache.put(key, content, in.getChunkList());
+            return content;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Enumerate the ids of all objects of a type, loose or packed.
+     * Packed ids come first, one pack at a time, then loose ids, one shard
+     * directory at a time, so only a single shard is ever listed in
+     * memory. An object that is both loose and packed, or loose in both
+     * layouts, is listed once.
+     * The ids are not in any global order.
+     * @param type the object type.
+     * @return the ids.
+     * **/
+    static Iterable<String> ids(byte type) {
+        return () -> new Ids(type, true);
+    }
+
+    /** Find the objects of a type whose ids start with PREFIX, without
+     * enumerating the store: each pack index is binary searched, and only
+     * the loose shards the prefix can fall in are listed, along with the
+     * objects written before sharding.
+     * @param type the object type.
+     * @param prefix a hexadecimal prefix; any other string matches nothing.
+     * @param limit the most ids to return; 2 is enough to tell a unique
+     *              prefix from an ambiguous one.
+     * @return the matching ids, in order.
+     * **/
+    static List<String> withPrefix(byte type, String prefix, int limit) {
+        TreeSet<String> result = new TreeSet<>();
+        if (!prefix.matches("[0-9a-f]{1,40}")) {
+            return new ArrayList<>();
+        }
+        for (Pack pack : packs()) {
+            pack.withPrefix(type, prefix, limit, result);
+        }
+        ArrayList<File> dirs = new ArrayList<>();
+        File top = folder(type);
+        dirs.add(top);
+        if (prefix.length() >= 2) {
+            dirs.add(new File(top, prefix.substring(0, 2)));
+        } else {
+            File[] shards = top.listFiles(file -> file.isDirectory()
+                    && file.getName().length() == 2
+                    && file.getName().startsWith(prefix));
+            if (shards != null) {
+                dirs.addAll(Arrays.asList(shards));
+            }
+        }
+        for (File dir : dirs) {
+            for (String id : listLoose(type, dir)) {
+                if (id.startsWith(prefix)) {
+                    result.add(id);
+                }
+            }
+        }
+        ArrayList<String> ids = new ArrayList<>(result);
+        return ids.subList(0, Math.min(limit, ids.size()));
+    }
+
+    /** Move every object into a new pack, then delete the loose objects
+     * and the packs it replaces. Objects too large for a pack stay
+     * loose. **/
+    static void repack() {
+        List<Pack> old = packs();
+        boolean loose = false;
+        for (byte type : TYPES) {
+            loose |= looseIds(type).iterator().hasNext();
+        }
+        if (old.size() <= 1 && !loose) {
+            return;
+        }
+        TreeMap<String, Byte> objects = new TreeMap<>();
+        for (byte type : TYPES) {
+            for (String id : ids(type)) {
+                objects.put(id, type);
+            }
+        }
+        Set<String> packed = pack(objects, old);
+        for (byte type : TYPES) {
+            for (String id : looseIds(type)) {
+                if (packed.contains(id)) {
+                    removeLoose(type, id);
+                }
+            }
+        }
+    }
+
+    /** Delete every object that is not reachable, unless it was written
+     * after CUTOFF. The reachable objects, and every object of a pack
+     * written after CUTOFF, are moved into a new pack that replaces the
+     * old ones. Loose objects that were packed, and unreachable loose
+     * objects written before CUTOFF, are deleted. The unreachable objects
+     * are never read.
+     * @param reachable mapping from id to type of the reachable objects.
+     * @param cutoff time in milliseconds before which unreachable objects
+     *               may be deleted.
+     * **/
+    static void gc(Map<String, Byte> reachable, long cutoff) {
+        List<Pack> old = packs();
+        TreeMap<String, Byte> objects = new TreeMap<>(reachable);
+        for (Pack pack : old) {
+            if (pack.lastModified() >= cutoff) {
+                for (byte type : TYPES) {
+                    for (Iterator<String> ids = pack.ids(type);
+                         ids.hasNext();) {
+                        objects.put(ids.next(), type);
+                    }
+                }
+            }
+        }
+        Set<String> packed = pack(objects, old);
+        for (byte type : TYPES) {
+            for (String id : looseIds(type)) {
+                if (packed.contains(id)) {
+                    removeLoose(type, id);
+                } else if (!objects.containsKey(id)) {
+                    File file = findLoose(type, id);
+                    if (file != null && file.lastModified() < cutoff) {
+                        removeLoose(type, id);
+                    }
+                }
+            }
+        }
+        _cache.clear();
+    }
+
+    /** Delete objects that other objects replaced, such as those that
+     * migrate rewrote: their loose files in both layouts and, when a pack
+     * holds any of them, their packed copies, by packing every other
+     * packed object again.
+     * @param objects mapping from id to type of the objects to delete.
+     * **/
+    static void remove(Map<String, Byte> objects) {
+        boolean packed = false;
+        for (Map.Entry<String, Byte> object : objects.entrySet()) {
+            removeLoose(object.getValue(), object.getKey());
+            packed |= inPacks(object.getKey());
+        }
+        if (packed) {
+            List<Pack> old = packs();
+            TreeMap<String, Byte> kept = new TreeMap<>();
+            for (Pack pack : old) {
+                for (byte type : TYPES) {
+                    for (Iterator<String> ids = pack.ids(type);
+                         ids.hasNext();) {
+                        String id = ids.next();
+                        if (!objects.containsKey(id)) {
+                            kept.put(id, type);
+                        }
+                    }
+                }
+            }
+            pack(kept, old);
+        }
+        _cache.clear();
+    }
+
+    /** Write OBJECTS into a new pack, then delete the packs in OLD.
+     * Packs are named after their content, so an old pack holding exactly
+     * the same objects is replaced in place and must not be deleted.
+     * @param objects mapping from id to type of the objects to pack.
+     * @param old the packs to replace.
+     * @return the ids of the objects that were packed.
+     * **/
+    private static Set<String> pack(SortedMap<String, Byte> objects,
+                                    List<Pack> old) {
+        HashSet<File> written = new HashSet<>();
+        HashSet<String> packed = new HashSet<>(Pack.write(packFolder(),
+                objects, chooseBases(objects), written));
+        for (Pack pack : old) {
+            if (!written.contains(pack.getIndexFile())) {
+                pack.delete();
+            }
+        }
+        _packs = null;
+        return packed;
+    }
+
+    /** Pick a delta base for each blob: the previous version of the same
+     * file, walking the commits from oldest to newest. A blob only gets a
+     * base the first time it is seen, and its base was seen before it, so
+     * bases never form a cycle; chains are cut at Pack.MAX_DELTA_DEPTH.
+     * Only the commits and blobs of OBJECTS are considered, so every
+     * base is packed along with its deltas.
+     * @param objects mapping from id to type of the objects to pack.
+     * @return mapping from blob id to the id of its base.
+     * **/
+    private static Map<String, String> chooseBases(
+            SortedMap<String, Byte> objects) {
+        ArrayList<Commit> commits = new ArrayList<>();
+        for (Map.Entry<String, Byte> object : objects.entrySet()) {
+            if (object.getValue() == COMMIT) {
+                commits.add(Commit.fromFile(object.getKey()));
+            }
+        }
+        commits.sort(Comparator.comparing(Commit::getDate));
+        HashMap<String, String> bases = new HashMap<>();
+        HashMap<String, Integer> depths = new HashMap<>();
+        HashMap<String, String> latest = new HashMap<>();
+        for (Commit commit : commits) {
+            for (Map.Entry<String, String> blob
+                    : commit.getBlobs().entrySet()) {
+                String id = blob.getValue();
+                Byte type = objects.get(id);
+                if (type == null || type != BLOB) {
+                    continue;
+                }
+                String previous = latest.put(blob.getKey(), id);
+                if (depths.containsKey(id)) {
+                    continue;
+                }
+                int depth = previous == null ? 0 : depths.get(previous) + 1;
+                if (depth == 0 || depth > Pack.MAX_DELTA_DEPTH) {
+                    depths.put(id, 0);
+                } else {
+                    depths.put(id, depth);
+                    bases.put(id, previous);
+                }
+            }
+        }
+        return bases;
+    }
+
+    /** Return the chunks of a blob stored as a chunk list.
+     * @param id the blob id.
+     * @return the chunk ids, or null if the blob is stored whole.
+     * **/
+    static List<String> chunksOf(String id) {
+        try (ObjectStream in = open(BLOB, id)) {
+            return in == null || in.getChunkList() == null ? null
+                    : Chunker.ids(in.getChunkList());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copy everything from IN to OUT through a bounded buffer.
+     * @param in source stream.
+     * @param out destination stream.
+     * @return number of bytes copied.
+     * @throws IOException on failure.
+     * **/
+    static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[Utils.BUFFER_SIZE];
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
+    /** Return the key of an object in the object cache.
+     * @param type the object type.
+     * @param id the object id.
+     * **/
+    private static String cacheKey(byte type, String id) {
+        return type + ":" + id;
+    }
+
+    /** Return the file of a loose object, in the shard named after the
+     * first two characters of its id.
+     * @param type the object type.
+     * @param id the object id.
+     * @return the path, whether or not the object exists.
+     * **/
+    static File loosePath(byte type, String id) {
+        return new File(folder(type), id.substring(0, 2) + "/"
+                + id.substring(2));
+    }
+
+    /** Return the id of the object stored in FILE, a loose object file
+     * either in a shard or in the flat layout used before sharding.
+     * @param file the object file.
+     * @return the id.
+     * **/
+    static String idOf(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0) {
+            return name.substring(0, dot);
+        }
+        File shard = file.getParentFile();
+        if (shard != null && shard.getName().length() == 2) {
+            return shard.getName() + name;
+        }
+        return name;
+    }
+
+    /** Return the folder holding the packs. **/
+    static File packFolder() {
+        return new File(Gitlet.getDefaultFolder() + "/packs");
+    }
+
+    /** Return the folder holding the loose objects of a type.
+     * @param type the object type.
+     * **/
+    private static File folder(byte type) {
+        if (type == TREE) {
+            return new File(Gitlet.getDefaultFolder() + "/trees");
+        } else if (type == CHUNK) {
+            return new File(Gitlet.getDefaultFolder() + "/chunks");
+        }
+        return new File(type == BLOB ? Blob.getFolderPath()
+                : Commit.getFolderPath());
+    }
+
+    /** Return the file a loose object had before sharding.
+     * @param type the object type.
+     * @param id the object id.
+     * @return the path, whether or not the object exists.
+     * **/
+    private static File legacyPath(byte type, String id) {
+        return new File(folder(type), id + suffix(type));
+    }
+
+    /** Return the suffix of loose object files written before sharding.
+     * @param type the object type.
+     * **/
+    private static String suffix(byte type) {
+        return type == BLOB ? ".blob" : type == TREE ? ".tree"
+                : type == CHUNK ? ".chunk" : ".commit";
+    }
+
+    /** Find the file of a loose object in either layout.
+     * @param type the object type.
+     * @param id the object id.
+     * @return the file, or null if the object is not loose.
+     * **/
+    private static File findLoose(byte type, String id) {
+        if (id.length() < 2) {
+            return null;
+        }
+        File file = loosePath(type, id);
+        if (file.isFile()) {
+            return file;
+        }
+        file = legacyPath(type, id);
+        return file.isFile() ? file : null;
+    }
+
+    /** Delete a loose object in both layouts, and its shard once it is
+     * empty.
+     * @param type the object type.
+     * @param id the object id.
+     * **/
+    private static void removeLoose(byte type, String id) {
+        File file = loosePath(type, id);
+        if (file.delete()) {
+            file.getParentFile().delete();
+        }
+        legacyPath(type, id).delete();
+    }
+
+    /** Check whether any pack holds an object.
+     * @param id the object id.
+     * @return true if the object is packed.
+     * **/
+    private static boolean inPacks(String id) {
+        for (Pack pack : packs()) {
+            if (pack.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Enumerate the ids of the loose objects of a type, packed or not.
+     * @param type the object type.
+     * @return the ids.
+     * **/
+    private static Iterable<String> looseIds(byte type) {
+        return () -> new Ids(type, false);
+    }
+
+    /** List the ids of the loose objects in one directory: a shard, or
+     * the top folder, which holds the objects written before sharding.
+     * @param type the object type.
+     * @param dir the directory.
+     * @return the ids, in order.
+     * **/
+    private static List<String> listLoose(byte type, File dir) {
+        ArrayList<String> ids = new ArrayList<>();
+        String[] names = dir.list();
+        if (names == null) {
+            return ids;
+        }
+        boolean top = dir.equals(folder(type));
+        String prefix = top ? "" : dir.getName();
+        String suffix = top ? suffix(type) : "";
+        int length = Utils.UID_LENGTH - prefix.length() + suffix.length();
+        for (String name : names) {
+            if (name.length() == length && name.endsWith(suffix)) {
+                ids.add(prefix + name.substring(0,
+                        name.length() - suffix.length()));
+            }
+        }
+        ids.sort(null);
+        return ids;
+    }
+
+    /** Open a loose object file.
+     * @param file the object file.
+     * @param type the expected object type.
+     * @return a stream of the uncompressed content.
+     * **/
+    private static ObjectStream openLoose(File file, byte type) {
+        try {
+            InputStream in = new BufferedInputStream(
+                    new FileInputStream(file));
+            DataInputStream data = new DataInputStream(in);
+            in.mark(HEADER_SIZE);
+            if (file.length() < HEADER_SIZE || data.readInt() != MAGIC) {
+                in.reset();
+                return openLegacy(file, type, in);
+            }
+            byte version = data.readByte();
+            byte actual = data.readByte();
+            long length = data.readLong();
+            if (actual == CHUNK_LIST && type == BLOB
+                    && version == VERSION) {
+                try (InputStream list = new InflaterInputStream(in)) {
+                    return Chunker.open(list.readAllBytes(), length);
+                }
+            }
+            if (version != VERSION || actual != type) {
+                in.close();
+                throw Utils.error("Unexpected object in %s.", file);
+            }
+            return new ObjectStream(new InflaterInputStream(in), type,
+                    length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Open a loose object written by the first version, a serialized
+     * Blob or Commit.
+     * @param file the object file.
+     * @param type the object type.
+     * @param in the open file, positioned at its start.
+     * @return a stream of the content.
+     * @throws IOException on failure.
+     * **/
+    private static ObjectStream openLegacy(File file, byte type,
+                                           InputStream in)
+            throws IOException {
+        in.close();
+        byte[] content = type == BLOB ? Legacy.readBlob(file)
+                : Legacy.readCommit(file).encode();
+        return new ObjectStream(new ByteArrayInputStream(content), type,
+                content.length);
+    }
+
+    /** Write an object header.
+     * @param out the stream to write to.
+     * @param type the object type.
+     * @param length length of the uncompressed content.
+     * @throws IOException on failure.
+     * **/
+    private static void writeHeader(OutputStream out, byte type,
+                                    long length) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeByte(type);
+        data.writeLong(length);
+        data.flush();
+    }
+
+    /** Open every pack once per process. Synchronized, since checkouts
+     * read objects from several threads.
+     * @return the packs.
+     * **/
+    private static synchronized List<Pack> packs() {
+        if (_packs == null) {
+            _packs = new ArrayList<>();
+            List<String> names = Utils.plainFilenamesIn(packFolder());
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".idx")) {
+                        _packs.add(Pack.open(new File(packFolder(), name)));
+                    }
+                }
+            }
+        }
+        return _packs;
+    }
+
+    /** Enumeration of the ids of the objects of a type: the packed ids
+     * pack by pack, if wanted, then the loose ids shard by shard, skipping
+     * loose objects that are also packed, and objects written before
+     * sharding that are also in their shard. **/
+    private static class Ids implements Iterator<String> {
+        /** Enumerate objects of type TYPE.
+         * @param type the object type.
+         * @param packed whether to include the packed objects.
+         * **/
+        Ids(byte type, boolean packed) {
+            _type = type;
+            _packed = packed;
+            _packs = packed ? packs().iterator()
+                    : Collections.emptyIterator();
+            ArrayList<File> dirs = new ArrayList<>();
+            File top = folder(type);
+            dirs.add(top);
+            File[] shards = top.listFiles(file -> file.isDirectory()
+                    && file.getName().length() == 2);
+            if (shards != null) {
+                Arrays.sort(shards);
+                dirs.addAll(Arrays.asList(shards));
+            }
+            _dirs = dirs.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (_next == null) {
+                if (_current.hasNext()) {
+                    String id = _current.next();
+                    if ((!_loose || !_packed || !inPacks(id))
+                            && (!_top || !loosePath(_type, id).isFile())) {
+                        _next = id;
+                    }
+                } else if (_packs.hasNext()) {
+                    _current = _packs.next().ids(_type);
+                } else if (_dirs.hasNext()) {
+                    File dir = _dirs.next();
+                    _loose = true;
+                    _top = dir.equals(folder(_type));
+                    _current = listLoose(_type, dir).iterator();
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String id = _next;
+            _next = null;
+            return id;
+        }
+
+        /** The object type. **/
+        private final byte _type;
+        /** Whether packed objects are enumerated. **/
+        private final boolean _packed;
+        /** The packs left to enumerate. **/
+        private final Iterator<Pack> _packs;
+        /** The loose object directories left to enumerate. **/
+        private final Iterator<File> _dirs;
+        /** The ids left in the current pack or directory. **/
+        private Iterator<String> _current = Collections.emptyIterator();
+        /** True once the enumeration reached the loose objects. **/
+        private boolean _loose;
+        /** True while the objects written before sharding are listed. **/
+        private boolean _top;
+        /** The next id, or null if it is not known yet. **/
+        private String _next;
+    }
+
+    /** A stream of the content of an object that knows its type and
+     * length. **/
+    static class ObjectStream extends FilterInputStream {
+        /** Wrap IN.
+         * @param in the uncompressed content.
+         * @param type the object type.
+         * @param length the length of the content.
+         * **/
+        ObjectStream(InputStream in, byte type, long length) {
+            this(in, type, length, null);
+        }
+
+        /** Wrap IN, the content of a blob stored as chunks.
+         * @param in the uncompressed content.
+         * @param type the object type.
+         * @param length the length of the content.
+         * @param chunkList the encoded chunk list, or null.
+         * **/
+        ObjectStream(InputStream in, byte type, long length,
+                     byte[] chunkList) {
+            super(in);
+            _type = type;
+            _length = length;
+            _chunkList = chunkList;
+        }
+
+        /** Return the chunk list the content is read from, or null if the
+         * object is stored whole. **/
+        byte[] getChunkList() {
+            return _chunkList;
+        }
+
+        /** Return the object type. **/
+        byte getType() {
+            return _type;
+        }
+
+        /** Return the length of the content. **/
+        long getLength() {
+            return _length;
+        }
+
+        /** The object type. **/
+        private final byte _type;
+        /** The length of the content. **/
+        private final long _length;
+        /** The encoded chunk list, or null. **/
+        private final byte[] _chunkList;
+    }
+
+    /** Every object type, in the order they are packed. **/
+    private static final byte[] TYPES = {COMMIT, TREE, BLOB, CHUNK};
+    /** Magic number at the start of every object, "GLOB". **/
+    private static final int MAGIC = 0x474C4F42;
+    /** Current version of the object format. **/
+    private static final byte VERSION = 1;
+    /** Size of the object header in bytes. **/
+    private static final int HEADER_SIZE = 14;
+    /** The open packs, or null before they are first needed. **/
+    private static List<Pack> _packs;
+    /** Contents read in this process; its size is set with the
+     * gitlet.objectCache system property, 64 MB by default. **/
+    private static final ObjectCache _cache = new ObjectCache(
+            Long.getLong("gitlet.objectCache", 64L << 20));
+}
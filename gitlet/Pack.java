@@ -0,0 +1,692 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** A pack: many objects stored in one file, with an index sorted by id.
+ * The pack file holds a header (magic, version, object count) and then
+ * one entry per object: its type, its length, the length of its
+ * compressed content and the deflate-compressed content. An entry of
+ * type DELTA instead holds the id of a base object followed by the
+ * compressed Delta that turns the base into the object; chains of deltas
+ * are at most MAX_DELTA_DEPTH long, and reconstructed bases go through
+ * the object cache so that walking back through versions of a file does
+ * not rebuild each chain from scratch.
+ * The index file holds a header, a fan-out table giving for each first
+ * byte of an id the number of entries whose first byte is not greater,
+ * and one fixed-size entry per object (binary id, type, offset in the
+ * pack), sorted by id. Both files are memory-mapped, so a lookup is a
+ * binary search over the mapped index and a read is a slice of the
+ * mapped pack.
+ * @author Vinh Bui
+ * **/
+class Pack {
+
+    /** Map a pack whose index is IDX.
+     * @param idx the index file.
+     * @param pack the pack file.
+     * @throws IOException on failure.
+     * **/
+    private Pack(File idx, File pack) throws IOException {
+        _idxFile = idx;
+        _packFile = pack;
+        _index = map(idx);
+        _pack = map(pack);
+        if (_index.getInt(0) != IDX_MAGIC || _index.getInt(4) != VERSION
+                || _pack.getInt(0) != PACK_MAGIC) {
+            throw Utils.error("Corrupted pack %s.", pack.getName());
+        }
+        _size = _index.getInt(8);
+    }
+
+    /** Open the pack whose index file is IDX.
+     * @param idx the index file.
+     * @return the pack.
+     * **/
+    static Pack open(File idx) {
+        String name = idx.getName();
+        String base = name.substring(0, name.length() - ".idx".length());
+        try {
+            return new Pack(idx, new File(idx.getParentFile(),
+                    base + ".pack"));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the number of objects in the pack. **/
+    int size() {
+        return _size;
+    }
+
+    /** Check whether the pack holds an object.
+     * @param id the object id.
+     * @return true if it does.
+     * **/
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /** Open an object of the pack.
+     * @param id the object id.
+     * @return a stream of its content, or null if the pack does not hold
+     * the object.
+     * **/
+    ObjectStore.ObjectStream open(String id) {
+        int entry = find(id);
+        if (entry < 0) {
+            return null;
+        }
+        int pos = entryPosition(entry);
+        return openAt(_index.getLong(pos + ID_SIZE + 1),
+                _index.get(pos + ID_SIZE));
+    }
+
+    /** Find the objects of a type whose ids start with PREFIX. The first
+     * candidate is found by binary search within the fan-out range of the
+     * prefix, and the index is read from there while ids still match.
+     * @param type the object type.
+     * @param prefix a lowercase hexadecimal prefix of at most 40 digits.
+     * @param limit stop after finding this many.
+     * @param result receives the ids.
+     * **/
+    void withPrefix(byte type, String prefix, int limit,
+                    Collection<String> result) {
+        byte[] key = toBytes(pad(prefix, '0'));
+        int low = 0;
+        if (key[0] != 0) {
+            low = _index.getInt(FANOUT_START + 4 * ((key[0] & 0xff) - 1));
+        }
+        int last = toBytes(pad(prefix, 'f'))[0] & 0xff;
+        int high = _index.getInt(FANOUT_START + 4 * last);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareAt(entryPosition(mid), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int found = 0;
+        for (int entry = low; entry < _size && found < limit;
+             entry += 1) {
+            int pos = entryPosition(entry);
+            String id = idAt(pos);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            if (_index.get(pos + ID_SIZE) == type) {
+                result.add(id);
+                found += 1;
+            }
+        }
+    }
+
+    /** Enumerate the ids of the objects of a type, in id order, reading
+     * the index one entry at a time.
+     * @param type the object type.
+     * @return the ids.
+     * **/
+    Iterator<String> ids(byte type) {
+        return new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                while (_entry < _size
+                        && _index.get(entryPosition(_entry) + ID_SIZE)
+                        != type) {
+                    _entry += 1;
+                }
+                return _entry < _size;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                _entry += 1;
+                return idAt(entryPosition(_entry - 1));
+            }
+
+            /** The next entry to look at. **/
+            private int _entry;
+        };
+    }
+
+    /** Return the time the pack was written, in milliseconds. **/
+    long lastModified() {
+        return _packFile.lastModified();
+    }
+
+    /** Return the index file of the pack. **/
+    File getIndexFile() {
+        return _idxFile;
+    }
+
+    /** Delete the pack and its index. **/
+    void delete() {
+        _idxFile.delete();
+        _packFile.delete();
+    }
+
+    /** Open the entry at OFFSET of the pack.
+     * @param offset position of the entry.
+     * @param type the object type recorded in the index.
+     * @return a stream of its content.
+     * **/
+    private ObjectStore.ObjectStream openAt(long offset, byte type) {
+        int pos = (int) offset;
+        byte kind = _pack.get(pos);
+        long length = _pack.getLong(pos + 1);
+        long compressed = _pack.getLong(pos + 1 + 8);
+        ByteBuffer data = _pack.duplicate();
+        data.position(pos + ENTRY_HEADER_SIZE);
+        data.limit((int) (pos + ENTRY_HEADER_SIZE + compressed));
+        data = data.slice();
+        if (kind == ObjectStore.CHUNK_LIST) {
+            try (InputStream in = new InflaterInputStream(
+                    new BufferStream(data))) {
+                return Chunker.open(in.readAllBytes(), length);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        } else if (kind != DELTA) {
+            return new ObjectStore.ObjectStream(new InflaterInputStream(
+                    new BufferStream(data)), type, length);
+        }
+        byte[] baseId = new byte[ID_SIZE];
+        data.get(baseId);
+        try (InputStream in = new InflaterInputStream(
+                new BufferStream(data))) {
+            byte[] base = baseContent(type, toHex(baseId));
+            byte[] content = Delta.apply(base, in.readAllBytes());
+            return new ObjectStore.ObjectStream(
+                    new ByteArrayInputStream(content), type, length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the content of a delta base. It is read through the object
+     * cache, so walking back through versions of a file does not rebuild
+     * each delta chain from scratch.
+     * @param type the object type.
+     * @param id the id of the base.
+     * @return its content.
+     * **/
+    private static byte[] baseContent(byte type, String id) {
+        byte[] content = ObjectStore.read(type, id);
+        if (content == null) {
+            throw Utils.error("Missing delta base %s.", id);
+        }
+        return content;
+    }
+
+    /** Binary search the index for an id.
+     * @param id the object id.
+     * @return the entry number, or -1 if it is absent.
+     * **/
+    private int find(String id) {
+        if (id.length() != Utils.UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = toBytes(id);
+        int first = key[0] & 0xff;
+        int low = 0;
+        if (first > 0) {
+            low = _index.getInt(FANOUT_START + 4 * (first - 1));
+        }
+        int high = _index.getInt(FANOUT_START + 4 * first) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareAt(entryPosition(mid), key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compare the id stored at POS of the index with KEY.
+     * @param pos position of the id in the index.
+     * @param key the binary id.
+     * @return negative, zero or positive as the stored id is less than,
+     * equal to or greater than KEY.
+     * **/
+    private int compareAt(int pos, byte[] key) {
+        for (int i = 0; i < ID_SIZE; i += 1) {
+            int cmp = (_index.get(pos + i) & 0xff) - (key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Return the hexadecimal id stored at POS of the index.
+     * @param pos position of the id in the index.
+     * **/
+    private String idAt(int pos) {
+        byte[] id = new byte[ID_SIZE];
+        _index.get(pos, id);
+        return toHex(id);
+    }
+
+    /** Convert a binary id to its hexadecimal form.
+     * @param id the 20 bytes of the id.
+     * @return the id.
+     * **/
+    static String toHex(byte[] id) {
+        StringBuilder result = new StringBuilder(Utils.UID_LENGTH);
+        for (byte b : id) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    /** Return the position of an entry in the index.
+     * @param entry the entry number.
+     * **/
+    private static int entryPosition(int entry) {
+        return ENTRIES_START + entry * IDX_ENTRY_SIZE;
+    }
+
+    /** Convert a hexadecimal id to its binary form.
+     * @param id the id.
+     * @return its 20 bytes.
+     * **/
+    static byte[] toBytes(String id) {
+        byte[] result = new byte[ID_SIZE];
+        for (int i = 0; i < ID_SIZE; i += 1) {
+            result[i] = (byte) Integer.parseInt(
+                    id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /** Extend a prefix of an id to a whole id.
+     * @param prefix the prefix.
+     * @param digit the digit to extend it with.
+     * @return the id.
+     * **/
+    private static String pad(String prefix, char digit) {
+        StringBuilder result = new StringBuilder(prefix);
+        while (result.length() < Utils.UID_LENGTH) {
+            result.append(digit);
+        }
+        return result.toString();
+    }
+
+    /** Map a whole file read-only.
+     * @param file the file.
+     * @return the mapped content.
+     * @throws IOException on failure.
+     * **/
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+    }
+
+    /** Write OBJECTS into new packs in FOLDER. A pack is closed once it
+     * grows past MAX_PACK_SIZE, so that each pack can be mapped at once,
+     * and objects longer than MAX_OBJECT_SIZE are left loose. An object
+     * with an entry in BASES is stored as a delta against that base when
+     * the delta is less than half the size of the object. BASES must not
+     * form chains longer than MAX_DELTA_DEPTH.
+     * @param folder the folder of the packs.
+     * @param objects the ids of the objects with their types.
+     * @param bases the suggested delta base of some objects.
+     * @param written receives the index file of every pack written.
+     * @return the ids of the objects that were packed.
+     * **/
+    static List<String> write(File folder, SortedMap<String, Byte> objects,
+                              Map<String, String> bases,
+                              Collection<File> written) {
+        folder.mkdirs();
+        List<String> packed = new ArrayList<>();
+        try {
+            Writer writer = null;
+            for (Map.Entry<String, Byte> object : objects.entrySet()) {
+                String id = object.getKey();
+                byte type = object.getValue();
+                try (ObjectStore.ObjectStream in =
+                             ObjectStore.open(type, id)) {
+                    if (in == null || (in.getChunkList() == null
+                            && in.getLength() > MAX_OBJECT_SIZE)) {
+                        continue;
+                    }
+                    if (writer == null) {
+                        writer = new Writer(folder);
+                    }
+                    String base = bases.get(id);
+                    if (in.getChunkList() != null) {
+                        writer.addChunkList(id, in.getLength(),
+                                in.getChunkList());
+                    } else if (base == null
+                            || in.getLength() > MAX_DELTA_SIZE
+                            || ObjectStore.chunksOf(base) != null) {
+                        writer.add(id, in);
+                    } else {
+                        byte[] content = in.readAllBytes();
+                        byte[] delta = Delta.create(baseContent(type, base),
+                                content, content.length / 2);
+                        if (delta == null) {
+                            writer.add(id, new ObjectStore.ObjectStream(
+                                    new ByteArrayInputStream(content), type,
+                                    content.length));
+                        } else {
+                            writer.addDelta(id, type, base, content.length,
+                                    delta);
+                        }
+                    }
+                }
+                packed.add(id);
+                if (writer.size() > MAX_PACK_SIZE) {
+                    written.add(writer.finish());
+                    writer = null;
+                }
+            }
+            if (writer != null) {
+                written.add(writer.finish());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return packed;
+    }
+
+    /** Writes one pack and its index. **/
+    private static class Writer {
+        /** Start a new pack in FOLDER.
+         * @param folder the folder of the packs.
+         * @throws IOException on failure.
+         * **/
+        Writer(File folder) throws IOException {
+            _folder = folder;
+            _temp = File.createTempFile("pack", ".tmp", folder);
+            _file = new RandomAccessFile(_temp, "rw");
+            _channel = _file.getChannel();
+            _out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(_channel)));
+            _out.writeInt(PACK_MAGIC);
+            _out.writeInt(VERSION);
+            _out.writeInt(0);
+            _out.flush();
+        }
+
+        /** Return the current size of the pack. **/
+        long size() throws IOException {
+            return _channel.position();
+        }
+
+        /** Append an object.
+         * @param id the object id.
+         * @param in the content of the object.
+         * @throws IOException on failure.
+         * **/
+        void add(String id, ObjectStore.ObjectStream in) throws IOException {
+            long offset = _channel.position();
+            _out.writeByte(in.getType());
+            _out.writeLong(in.getLength());
+            _out.writeLong(0);
+            DeflaterOutputStream deflate = new DeflaterOutputStream(
+                    new NonClosingStream(_out),
+                    new Deflater(Deflater.DEFAULT_COMPRESSION));
+            ObjectStore.copy(in, deflate);
+            deflate.finish();
+            _out.flush();
+            long compressed = _channel.position() - offset
+                    - ENTRY_HEADER_SIZE;
+            ByteBuffer length = ByteBuffer.allocate(8);
+            length.putLong(compressed).flip();
+            _channel.write(length, offset + 1 + 8);
+            _ids.add(id);
+            _types.add(in.getType());
+            _offsets.add(offset);
+        }
+
+        /** Append a blob stored as a chunk list.
+         * @param id the blob id.
+         * @param length the length of the blob.
+         * @param list the encoded chunk list.
+         * @throws IOException on failure.
+         * **/
+        void addChunkList(String id, long length, byte[] list)
+                throws IOException {
+            long offset = _channel.position();
+            _out.writeByte(ObjectStore.CHUNK_LIST);
+            _out.writeLong(length);
+            _out.writeLong(0);
+            DeflaterOutputStream deflate = new DeflaterOutputStream(
+                    new NonClosingStream(_out),
+                    new Deflater(Deflater.DEFAULT_COMPRESSION));
+            deflate.write(list);
+            deflate.finish();
+            _out.flush();
+            long compressed = _channel.position() - offset
+                    - ENTRY_HEADER_SIZE;
+            ByteBuffer size = ByteBuffer.allocate(8);
+            size.putLong(compressed).flip();
+            _channel.write(size, offset + 1 + 8);
+            _ids.add(id);
+            _types.add(ObjectStore.BLOB);
+            _offsets.add(offset);
+        }
+
+        /** Append an object stored as a delta.
+         * @param id the object id.
+         * @param type the object type.
+         * @param base the id of the delta base.
+         * @param length the length of the object.
+         * @param delta the delta from the base to the object.
+         * @throws IOException on failure.
+         * **/
+        void addDelta(String id, byte type, String base, long length,
+                      byte[] delta) throws IOException {
+            long offset = _channel.position();
+            _out.writeByte(DELTA);
+            _out.writeLong(length);
+            _out.writeLong(0);
+            _out.write(toBytes(base));
+            DeflaterOutputStream deflate = new DeflaterOutputStream(
+                    new NonClosingStream(_out),
+                    new Deflater(Deflater.DEFAULT_COMPRESSION));
+            deflate.write(delta);
+            deflate.finish();
+            _out.flush();
+            long compressed = _channel.position() - offset
+                    - ENTRY_HEADER_SIZE;
+            ByteBuffer size = ByteBuffer.allocate(8);
+            size.putLong(compressed).flip();
+            _channel.write(size, offset + 1 + 8);
+            _ids.add(id);
+            _types.add(type);
+            _offsets.add(offset);
+        }
+
+        /** Write the object count and the index, and move both files into
+         * place. The ids must have been added in increasing order.
+         * @throws IOException on failure.
+         * **/
+        File finish() throws IOException {
+            ByteBuffer count = ByteBuffer.allocate(4);
+            count.putInt(_ids.size()).flip();
+            _channel.write(count, 8);
+            _channel.force(true);
+            _file.close();
+            String name = "pack-" + Utils.sha1(String.join("", _ids));
+            Files.move(_temp.toPath(), new File(_folder, name
+                    + ".pack").toPath(), StandardCopyOption.ATOMIC_MOVE);
+            File idx = File.createTempFile("idx", ".tmp", _folder);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(
+                            idx.toPath())))) {
+                out.writeInt(IDX_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(_ids.size());
+                int[] fanout = new int[FANOUT_SIZE];
+                for (String id : _ids) {
+                    fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+                }
+                int total = 0;
+                for (int i = 0; i < FANOUT_SIZE; i += 1) {
+                    total += fanout[i];
+                    out.writeInt(total);
+                }
+                for (int i = 0; i < _ids.size(); i += 1) {
+                    out.write(toBytes(_ids.get(i)));
+                    out.writeByte(_types.get(i));
+                    out.writeLong(_offsets.get(i));
+                }
+            }
+            File result = new File(_folder, name + ".idx");
+            Files.move(idx.toPath(), result.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+            return result;
+        }
+
+        /** The folder of the packs. **/
+        private final File _folder;
+        /** The pack while it is being written. **/
+        private final File _temp;
+        /** The open pack file. **/
+        private final RandomAccessFile _file;
+        /** The channel of the pack file. **/
+        private final FileChannel _channel;
+        /** Buffered stream appending to the pack file. **/
+        private final DataOutputStream _out;
+        /** Ids of the objects written so far, in order. **/
+        private final List<String> _ids = new ArrayList<>();
+        /** Types of the objects written so far. **/
+        private final List<Byte> _types = new ArrayList<>();
+        /** Offsets of the objects written so far. **/
+        private final List<Long> _offsets = new ArrayList<>();
+    }
+
+    /** An output stream that does not close the stream it wraps. **/
+    private static class NonClosingStream extends OutputStream {
+        /** Wrap OUT.
+         * @param out the wrapped stream.
+         * **/
+        NonClosingStream(OutputStream out) {
+            _wrapped = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            _wrapped.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            _wrapped.write(b, off, len);
+        }
+
+        /** The wrapped stream. **/
+        private final OutputStream _wrapped;
+    }
+
+    /** An input stream over the remaining bytes of a buffer. **/
+    private static class BufferStream extends InputStream {
+        /** Read from BUFFER.
+         * @param buffer the bytes to read.
+         * **/
+        BufferStream(ByteBuffer buffer) {
+            _buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            if (!_buffer.hasRemaining()) {
+                return -1;
+            }
+            return _buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!_buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, _buffer.remaining());
+            _buffer.get(b, off, n);
+            return n;
+        }
+
+        /** The bytes to read. **/
+        private final ByteBuffer _buffer;
+    }
+
+    /** Longest chain of deltas allowed in a pack. **/
+    static final int MAX_DELTA_DEPTH = 10;
+
+    /** Magic number at the start of a pack, "GLPK". **/
+    private static final int PACK_MAGIC = 0x474C504B;
+    /** Magic number at the start of an index, "GLPI". **/
+    private static final int IDX_MAGIC = 0x474C5049;
+    /** Version of the pack and index formats. **/
+    private static final int VERSION = 1;
+    /** Size of a binary id. **/
+    private static final int ID_SIZE = 20;
+    /** Size of an entry header in the pack: type, length, compressed
+     * length. **/
+    private static final int ENTRY_HEADER_SIZE = 1 + 8 + 8;
+    /** Size of an index entry: id, type, offset. **/
+    private static final int IDX_ENTRY_SIZE = ID_SIZE + 1 + 8;
+    /** Number of entries of the fan-out table. **/
+    private static final int FANOUT_SIZE = 256;
+    /** Position of the fan-out table in the index. **/
+    private static final int FANOUT_START = 12;
+    /** Position of the first entry in the index. **/
+    private static final int ENTRIES_START = FANOUT_START + 4 * FANOUT_SIZE;
+    /** Size past which a pack is closed and a new one started. **/
+    private static final long MAX_PACK_SIZE = 1L << 30;
+    /** Objects longer than this stay loose. **/
+    private static final long MAX_OBJECT_SIZE = 1L << 28;
+    /** Objects longer than this are never stored as deltas. **/
+    private static final long MAX_DELTA_SIZE = 1L << 26;
+    /** Entry type of objects stored as deltas. **/
+    private static final byte DELTA = 0x10;
+
+    /** The index file. **/
+    private final File _idxFile;
+    /** The pack file. **/
+    private final File _packFile;
+    /** The mapped index. **/
+    private final MappedByteBuffer _index;
+    /** The mapped pack. **/
+    private final MappedByteBuffer _pack;
+    /** Number of objects in the pack. **/
+    private final int _size;
+}
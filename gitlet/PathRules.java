@@ -0,0 +1,259 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/** A set of path patterns, compiled once per command: the rules of the
+ * .gitletignore file, and the paths of a sparse checkout.
+ * Each line is a pattern; blank lines and lines starting with '#' are
+ * skipped. A pattern ending in '/' only matches directories. A pattern
+ * containing another '/' is matched against the whole path from the
+ * working directory, anything else against the last name of the path.
+ * '*' and '?' match within one name, "**" across directories, and
+ * "[...]" a class of characters. A pattern starting with '!' brings back
+ * what an earlier one matched; the last matching pattern wins.
+ * Names and suffixes without other wildcards, the common case, are
+ * compared directly; only the other patterns go through a regex.
+ * A directory that matches matches everything under it, so an ignored
+ * directory is skipped as a whole and nothing under it is ever listed,
+ * stat'ed or hashed.
+ * @author Vinh Bui
+ * **/
+class PathRules {
+
+    /** Create an empty set of rules. **/
+    private PathRules() {
+    }
+
+    /** Read rules from a file.
+     * @param file the file, one pattern per line.
+     * @return the rules, which are empty if there is no such file.
+     * **/
+    static PathRules load(File file) {
+        PathRules rules = new PathRules();
+        if (file.isFile()) {
+            for (String line : Utils.readContentsAsString(file)
+                    .split("\r?\n")) {
+                rules.addRule(line);
+            }
+        }
+        return rules;
+    }
+
+    /** Return true if there are no rules, so that nothing matches. **/
+    boolean isEmpty() {
+        return _rules.isEmpty();
+    }
+
+    /** Compile one line of the file.
+     * @param line the line.
+     * **/
+    void addRule(String line) {
+        String pattern = line.stripTrailing();
+        if (pattern.isEmpty() || pattern.startsWith("#")) {
+            return;
+        }
+        boolean negated = pattern.startsWith("!");
+        if (negated) {
+            pattern = pattern.substring(1);
+        }
+        boolean dirOnly = pattern.endsWith("/");
+        if (dirOnly) {
+            pattern = pattern.substring(0, pattern.length() - 1);
+        }
+        boolean anchored = pattern.indexOf('/') >= 0;
+        if (pattern.startsWith("/")) {
+            pattern = pattern.substring(1);
+        }
+        if (!pattern.isEmpty()) {
+            _rules.add(new Rule(pattern, negated, dirOnly, anchored));
+        }
+    }
+
+    /** Check whether a file or directory matches the rules, without
+     * looking at its parents; used while walking the working directory,
+     * where matching parents are handled as a whole.
+     * @param path the path from the working directory.
+     * @param isDir true if PATH is a directory.
+     * @return true if it matches.
+     * **/
+    boolean matches(String path, boolean isDir) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        for (int i = _rules.size() - 1; i >= 0; i -= 1) {
+            Rule rule = _rules.get(i);
+            if ((isDir || !rule._dirOnly)
+                    && rule.matches(rule._anchored ? path : name)) {
+                return !rule._negated;
+            }
+        }
+        return false;
+    }
+
+    /** Check whether a file matches, either itself or because one of the
+     * directories on its path does.
+     * @param path the path of the file from the working directory.
+     * @return true if it matches.
+     * **/
+    boolean matches(String path) {
+        if (_rules.isEmpty()) {
+            return false;
+        }
+        for (int slash = path.indexOf('/'); slash >= 0;
+             slash = path.indexOf('/', slash + 1)) {
+            if (matches(path.substring(0, slash), true)) {
+                return true;
+            }
+        }
+        return matches(path, false);
+    }
+
+    /** Check whether some path under a directory that does not match
+     * itself might match. The answer errs on the side of true, so that
+     * only directories no rule can reach are skipped.
+     * @param dir the path of the directory.
+     * @return false if nothing under DIR can match.
+     * **/
+    boolean mayMatchUnder(String dir) {
+        String[] names = dir.split("/");
+        for (Rule rule : _rules) {
+            if (!rule._negated && rule.mayMatchUnder(names)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** One compiled pattern. **/
+    private static class Rule {
+        /** Compile a pattern.
+         * @param pattern the pattern, without '!', leading or trailing '/'.
+         * @param negated true if the pattern started with '!'.
+         * @param dirOnly true if the pattern ended with '/'.
+         * @param anchored true if the pattern is matched against paths.
+         * **/
+        Rule(String pattern, boolean negated, boolean dirOnly,
+             boolean anchored) {
+            _negated = negated;
+            _dirOnly = dirOnly;
+            _anchored = anchored;
+            _names = pattern.split("/");
+            if (!hasWildcard(pattern, 0)) {
+                _literal = pattern;
+            } else if (pattern.startsWith("*") && !anchored
+                    && !hasWildcard(pattern, 1)) {
+                _suffix = pattern.substring(1);
+            } else {
+                _regex = Pattern.compile(toRegex(pattern));
+            }
+        }
+
+        /** Check the pattern against a name or path.
+         * @param subject the name, or the path if the rule is anchored.
+         * @return true if it matches.
+         * **/
+        boolean matches(String subject) {
+            if (_literal != null) {
+                return _literal.equals(subject);
+            } else if (_suffix != null) {
+                return subject.endsWith(_suffix);
+            }
+            return _regex.matcher(subject).matches();
+        }
+
+        /** Check whether the rule might match a path under a directory.
+         * @param dir the names on the path of the directory.
+         * @return false if it cannot.
+         * **/
+        boolean mayMatchUnder(String[] dir) {
+            if (!_anchored) {
+                return true;
+            }
+            for (int i = 0; i < dir.length; i += 1) {
+                if (i == _names.length) {
+                    return false;
+                } else if (hasWildcard(_names[i], 0)) {
+                    return true;
+                } else if (!_names[i].equals(dir[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Check whether PATTERN has a wildcard at or after START.
+         * @param pattern the pattern.
+         * @param start the first position to look at.
+         * @return true if it has one.
+         * **/
+        private static boolean hasWildcard(String pattern, int start) {
+            for (int i = start; i < pattern.length(); i += 1) {
+                if ("*?[\\".indexOf(pattern.charAt(i)) >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Translate a glob pattern to a regular expression.
+         * @param pattern the pattern.
+         * @return the regular expression.
+         * **/
+        private static String toRegex(String pattern) {
+            StringBuilder regex = new StringBuilder();
+            int n = pattern.length();
+            for (int i = 0; i < n; i += 1) {
+                char c = pattern.charAt(i);
+                if (pattern.startsWith("**/", i)) {
+                    regex.append("(?:.*/)?");
+                    i += 2;
+                } else if (pattern.startsWith("/**", i) && i + 3 == n) {
+                    regex.append("(?:/.*)?");
+                    i += 2;
+                } else if (pattern.startsWith("**", i)) {
+                    regex.append(".*");
+                    i += 1;
+                } else if (c == '*') {
+                    regex.append("[^/]*");
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                } else if (c == '[' && pattern.indexOf(']', i + 2) > 0) {
+                    int end = pattern.indexOf(']', i + 2);
+                    String members = pattern.substring(i + 1, end);
+                    if (members.startsWith("!")) {
+                        members = "^" + members.substring(1);
+                    }
+                    regex.append('[').append(members.replace("\\", "\\\\"))
+                            .append(']');
+                    i = end;
+                } else if (c == '\\' && i + 1 < n) {
+                    i += 1;
+                    regex.append(Pattern.quote(String.valueOf(
+                            pattern.charAt(i))));
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return regex.toString();
+        }
+
+        /** True if the pattern started with '!'. **/
+        private final boolean _negated;
+        /** True if the pattern only matches directories. **/
+        private final boolean _dirOnly;
+        /** True if the pattern is matched against the whole path. **/
+        private final boolean _anchored;
+        /** The names of the pattern, split at '/'. **/
+        private final String[] _names;
+        /** The name the pattern matches exactly, if it has no wildcard. **/
+        private String _literal;
+        /** The suffix the pattern matches, if it is '*' and a suffix. **/
+        private String _suffix;
+        /** The compiled pattern otherwise. **/
+        private Pattern _regex;
+    }
+
+    /** The rules, in file order. **/
+    private final List<Rule> _rules = new ArrayList<>();
+}
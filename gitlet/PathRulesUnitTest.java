@@ -0,0 +1,69 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.File;
+
+/** Unit test for path rules.
+ * @author Vinh Bui
+ * **/
+public class PathRulesUnitTest {
+
+    /** Compile LINES into a set of rules.
+     * @param lines the lines of a rules file.
+     * @return the rules.
+     * **/
+    private PathRules rules(String... lines) {
+        PathRules ignore = PathRules.load(new File("testing/no-such-file"));
+        for (String line : lines) {
+            ignore.addRule(line);
+        }
+        return ignore;
+    }
+
+    @Test
+    public void testNamesAndSuffixesMatchAtAnyDepth() {
+        PathRules ignore = rules("# comment", "", "*.class", "Thumbs.db");
+        assertTrue(ignore.matches("A.class"));
+        assertTrue(ignore.matches("src/main/A.class"));
+        assertTrue(ignore.matches("pics/Thumbs.db"));
+        assertFalse(ignore.matches("A.java"));
+        assertFalse(ignore.matches("# comment"));
+    }
+
+    @Test
+    public void testDirectoriesAndAnchors() {
+        PathRules ignore = rules("build/", "/notes.txt", "doc/**/*.tmp");
+        assertTrue(ignore.matches("build/a.txt"));
+        assertTrue(ignore.matches("sub/build/x/a.txt"));
+        assertFalse(ignore.matches("build"));
+        assertTrue(ignore.matches("build", true));
+        assertTrue(ignore.matches("notes.txt"));
+        assertFalse(ignore.matches("sub/notes.txt"));
+        assertTrue(ignore.matches("doc/a.tmp"));
+        assertTrue(ignore.matches("doc/x/y/a.tmp"));
+        assertFalse(ignore.matches("src/doc/a.tmp"));
+    }
+
+    @Test
+    public void testLastMatchingRuleWins() {
+        PathRules ignore = rules("*.log", "!keep.log", "log?.[ab]");
+        assertTrue(ignore.matches("debug.log"));
+        assertFalse(ignore.matches("keep.log"));
+        assertTrue(ignore.matches("log1.a"));
+        assertFalse(ignore.matches("log1.c"));
+    }
+
+    @Test
+    public void testMayMatchUnder() {
+        PathRules sparse = rules("/src/main/", "docs/*.md", "!/lib/");
+        assertTrue(sparse.mayMatchUnder("src"));
+        assertTrue(sparse.mayMatchUnder("src/main"));
+        assertFalse(sparse.mayMatchUnder("src/test"));
+        assertFalse(sparse.mayMatchUnder("lib"));
+        assertTrue(sparse.mayMatchUnder("docs"));
+        assertFalse(sparse.mayMatchUnder("tools"));
+        assertFalse(sparse.matches("src/test/A.java"));
+        assertTrue(sparse.matches("src/main/A.java"));
+    }
+}
@@ -0,0 +1,229 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/** The staging area, kept in a small binary index file apart from the
+ * rest of the repository state.
+ * The file starts with a magic number followed by a log of records, each
+ * one an operation byte and a file name. Every change appends a single
+ * record; the log is rewritten from the live entries once it holds too
+ * many dead records, and truncated when the staging area is cleared. A
+ * record torn by a crash is dropped: the log is rewritten instead of
+ * appended to, so that later records do not follow the torn bytes.
+ * @author Vinh Bui
+ * **/
+class StagingArea {
+
+    /** Create an empty staging area backed by FILE.
+     * @param file the index file.
+     * **/
+    private StagingArea(File file) {
+        _file = file;
+    }
+
+    /** Create an empty index file.
+     * @param file the index file.
+     * @return the empty staging area.
+     * **/
+    static StagingArea create(File file) {
+        StagingArea stage = new StagingArea(file);
+        stage.compact();
+        return stage;
+    }
+
+    /** Read the staging area from its index file. A missing file is an
+     * empty staging area, and a torn record at the tail is ignored until
+     * the next change rewrites the file.
+     * @param file the index file.
+     * @return the staging area.
+     * **/
+    static StagingArea load(File file) {
+        StagingArea stage = new StagingArea(file);
+        if (!file.isFile()) {
+            return stage;
+        }
+        byte[] data;
+        try {
+            data = Files.readAllBytes(file.toPath());
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read staging index: %s",
+                    excp.getMessage());
+        }
+        ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+        int end = 0;
+        try (DataInputStream in = new DataInputStream(bytes)) {
+            if (in.readInt() != MAGIC) {
+                throw Utils.error("Corrupted staging index.");
+            }
+            end = data.length - bytes.available();
+            while (true) {
+                byte op = in.readByte();
+                String name = in.readUTF();
+                stage.apply(op, name);
+                stage._records += 1;
+                end = data.length - bytes.available();
+            }
+        } catch (EOFException excp) {
+            stage._torn = end < data.length;
+            return stage;
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read staging index: %s",
+                    excp.getMessage());
+        }
+    }
+
+    /** Return the files staged for addition, in staging order. **/
+    Set<String> getStagedForAdd() {
+        return Collections.unmodifiableSet(_stagedForAdd);
+    }
+
+    /** Return the files staged for removal, in staging order. **/
+    Set<String> getStagedForRemove() {
+        return Collections.unmodifiableSet(_stagedForRemove);
+    }
+
+    /** Return true if nothing is staged. **/
+    boolean isEmpty() {
+        return _stagedForAdd.isEmpty() && _stagedForRemove.isEmpty();
+    }
+
+    /** Stage a file for addition, taking it out of the removal zone.
+     * @param name name of the file.
+     * **/
+    void stageForAdd(String name) {
+        if (!_stagedForAdd.contains(name)) {
+            record(ADD, name);
+        }
+    }
+
+    /** Stage a file for removal, taking it out of the addition zone.
+     * @param name name of the file.
+     * **/
+    void stageForRemove(String name) {
+        if (!_stagedForRemove.contains(name)) {
+            record(REMOVE, name);
+        }
+    }
+
+    /** Take a file out of both zones.
+     * @param name name of the file.
+     * **/
+    void unstage(String name) {
+        if (_stagedForAdd.contains(name)
+                || _stagedForRemove.contains(name)) {
+            record(UNSTAGE, name);
+        }
+    }
+
+    /** Clear both zones. **/
+    void clear() {
+        if (_records > 0) {
+            _stagedForAdd.clear();
+            _stagedForRemove.clear();
+            compact();
+        }
+    }
+
+    /** Apply a change to the in-memory zones.
+     * @param op the operation.
+     * @param name name of the file.
+     * **/
+    private void apply(byte op, String name) {
+        switch (op) {
+        case ADD:
+            _stagedForRemove.remove(name);
+            _stagedForAdd.add(name);
+            break;
+        case REMOVE:
+            _stagedForAdd.remove(name);
+            _stagedForRemove.add(name);
+            break;
+        case UNSTAGE:
+            _stagedForAdd.remove(name);
+            _stagedForRemove.remove(name);
+            break;
+        default:
+            throw Utils.error("Corrupted staging index.");
+        }
+    }
+
+    /** Apply a change and append it to the index file, compacting the
+     * file instead when most of its records are dead or its last record
+     * is torn.
+     * @param op the operation.
+     * @param name name of the file.
+     * **/
+    private void record(byte op, String name) {
+        apply(op, name);
+        _records += 1;
+        int live = _stagedForAdd.size() + _stagedForRemove.size();
+        if (_torn || _records > 2 * live + COMPACT_SLACK) {
+            compact();
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(_file,
+                        true)))) {
+            out.writeByte(op);
+            out.writeUTF(name);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write staging index: %s",
+                    excp.getMessage());
+        }
+    }
+
+    /** Rewrite the index file with one record per live entry. **/
+    private void compact() {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(_file)))) {
+            out.writeInt(MAGIC);
+            for (String name : _stagedForAdd) {
+                out.writeByte(ADD);
+                out.writeUTF(name);
+            }
+            for (String name : _stagedForRemove) {
+                out.writeByte(REMOVE);
+                out.writeUTF(name);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write staging index: %s",
+                    excp.getMessage());
+        }
+        _records = _stagedForAdd.size() + _stagedForRemove.size();
+        _torn = false;
+    }
+
+    /** Magic number at the start of the index file, "GLIX". **/
+    private static final int MAGIC = 0x474C4958;
+    /** Record that stages a file for addition. **/
+    private static final byte ADD = 'A';
+    /** Record that stages a file for removal. **/
+    private static final byte REMOVE = 'R';
+    /** Record that takes a file out of both zones. **/
+    private static final byte UNSTAGE = 'U';
+    /** Number of dead records tolerated before compaction. **/
+    private static final int COMPACT_SLACK = 32;
+
+    /** The index file. **/
+    private final File _file;
+    /** Number of records currently in the index file. **/
+    private int _records;
+    /** True if the index file ends with a torn record. **/
+    private boolean _torn;
+    /** Store add zone. **/
+    private final LinkedHashSet<String> _stagedForAdd = new LinkedHashSet<>();
+    /** Store remove zone. **/
+    private final LinkedHashSet<String> _stagedForRemove =
+            new LinkedHashSet<>();
+}
@@ -0,0 +1,58 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/** Unit test for the staging index.
+ * @author Vinh Bui
+ * **/
+public class StagingAreaUnitTest {
+    private final File _index = new File("testing/index");
+
+    @Test
+    public void testReloadKeepsOrder() {
+        StagingArea stage = StagingArea.create(_index);
+        stage.stageForAdd("b.txt");
+        stage.stageForAdd("a.txt");
+        stage.stageForRemove("c.txt");
+        stage.stageForRemove("b.txt");
+        StagingArea loaded = StagingArea.load(_index);
+        assertArrayEquals(new Object[] {"a.txt"},
+                loaded.getStagedForAdd().toArray());
+        assertArrayEquals(new Object[] {"c.txt", "b.txt"},
+                loaded.getStagedForRemove().toArray());
+    }
+
+    @Test
+    public void testClearAndCompact() {
+        StagingArea stage = StagingArea.create(_index);
+        for (int i = 0; i < 200; i += 1) {
+            stage.stageForAdd("a.txt");
+            stage.unstage("a.txt");
+        }
+        assertTrue(_index.length() < 400);
+        stage.stageForAdd("a.txt");
+        stage.clear();
+        assertTrue(StagingArea.load(_index).isEmpty());
+    }
+
+    @Test
+    public void testAppendAfterTornRecord() throws IOException {
+        StagingArea stage = StagingArea.create(_index);
+        stage.stageForAdd("a.txt");
+        try (FileOutputStream out = new FileOutputStream(_index, true)) {
+            out.write(new byte[] {'A', 0, 9, 'b'});
+        }
+        stage = StagingArea.load(_index);
+        stage.stageForAdd("c.txt");
+        stage.stageForRemove("d.txt");
+        StagingArea loaded = StagingArea.load(_index);
+        assertArrayEquals(new Object[] {"a.txt", "c.txt"},
+                loaded.getStagedForAdd().toArray());
+        assertArrayEquals(new Object[] {"d.txt"},
+                loaded.getStagedForRemove().toArray());
+    }
+}
@@ -0,0 +1,394 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/** Cache of the blob ids of working files, keyed by their stat data.
+ * For every file whose id is known, the cache records its modification
+ * time, size and inode along with the id. As long as those still match,
+ * the id is taken from the cache instead of hashing the file again.
+ * A file modified within RACY_WINDOW of being recorded is not cached,
+ * since a second change in the same timestamp tick would go unnoticed.
+ * When a Monitor is watching the working directory, the cache also holds
+ * the list of working files and the point of the monitor's log it is
+ * up to date with, and files the monitor saw no change to are not even
+ * stat'ed.
+ * The cache is only an optimization: a missing or unreadable cache file
+ * is an empty cache.
+ * @author Vinh Bui
+ * **/
+class StatCache {
+
+    /** Create an empty cache backed by FILE.
+     * @param file the cache file.
+     * **/
+    private StatCache(File file) {
+        _file = file;
+    }
+
+    /** Read the cache from its file.
+     * @param file the cache file.
+     * @return the cache.
+     * **/
+    static StatCache load(File file) {
+        StatCache cache = new StatCache(file);
+        if (!file.isFile()) {
+            return cache;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return cache;
+            }
+            cache._session = in.readLong();
+            cache._offset = in.readLong();
+            int names = in.readInt();
+            if (names >= 0) {
+                cache._names = new TreeSet<>();
+                for (int i = 0; i < names; i += 1) {
+                    cache._names.add(in.readUTF());
+                }
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                String name = in.readUTF();
+                long[] stat = {in.readLong(), in.readLong(), in.readLong()};
+                byte[] id = new byte[Utils.UID_LENGTH / 2];
+                in.readFully(id);
+                cache._entries.put(name, new Entry(stat, Pack.toHex(id)));
+            }
+        } catch (IOException excp) {
+            cache = new StatCache(file);
+        }
+        return cache;
+    }
+
+    /** Return the blob id of a working file, hashing it only if its stat
+     * data changed since it was recorded.
+     * @param name name of the file.
+     * @param file the file.
+     * @return the blob id.
+     * **/
+    String idOf(String name, File file) {
+        Entry entry = _entries.get(name);
+        if (entry != null && unchanged(name)) {
+            return entry._id;
+        }
+        long[] stat = stat(file);
+        if (stat != null && entry != null && entry.matches(stat)) {
+            return entry._id;
+        }
+        String id = Blob.idOf(file.length(), file);
+        put(name, stat, id);
+        return id;
+    }
+
+    /** Return the blob id of a working file if the cache knows it,
+     * without hashing the file.
+     * @param name name of the file.
+     * @param file the file.
+     * @return the blob id, or null if the file is not cached or changed
+     * since it was recorded.
+     * **/
+    String knownId(String name, File file) {
+        Entry entry = _entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        if (unchanged(name)) {
+            return entry._id;
+        }
+        long[] stat = stat(file);
+        return stat != null && entry.matches(stat) ? entry._id : null;
+    }
+
+    /** Return the blob ids of several working files. The files are
+     * stat'ed, and those the cache does not know are hashed, on up to JOBS
+     * threads of a fork-join pool; the cache itself is only updated once
+     * they are all done.
+     * @param names names of the files.
+     * @param dir the directory holding the files.
+     * @param jobs maximum number of threads.
+     * @return mapping from name to blob id.
+     * **/
+    Map<String, String> idsOf(List<String> names, File dir, int jobs) {
+        int count = names.size();
+        long[][] stats = new long[count][];
+        String[] ids = new String[count];
+        IntStream work = IntStream.range(0, count);
+        if (jobs <= 1 || count <= 1) {
+            work.forEach(i -> lookup(names.get(i), dir, stats, ids, i));
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(jobs);
+            try {
+                pool.submit(() -> work.parallel().forEach(
+                        i -> lookup(names.get(i), dir, stats, ids, i)))
+                        .get();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                throw Utils.error("Interrupted while hashing files.");
+            } catch (ExecutionException excp) {
+                if (excp.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) excp.getCause();
+                }
+                throw new IllegalArgumentException(excp.getMessage());
+            } finally {
+                pool.shutdown();
+            }
+        }
+        HashMap<String, String> result = new HashMap<>();
+        for (int i = 0; i < count; i += 1) {
+            Entry entry = _entries.get(names.get(i));
+            if (entry == null || stats[i] == null
+                    || !entry.matches(stats[i])) {
+                put(names.get(i), stats[i], ids[i]);
+            }
+            result.put(names.get(i), ids[i]);
+        }
+        return result;
+    }
+
+    /** Find the id of one file for idsOf, reading the cache but not
+     * changing it, so that it can run on any thread.
+     * @param name name of the file.
+     * @param dir the directory holding the file.
+     * @param stats receives the stat data of the file at I.
+     * @param ids receives the id of the file at I.
+     * @param i index of the file.
+     * **/
+    private void lookup(String name, File dir, long[][] stats, String[] ids,
+                        int i) {
+        File file = new File(dir, name);
+        Entry entry = _entries.get(name);
+        if (entry != null && unchanged(name)) {
+            stats[i] = entry._stat;
+            ids[i] = entry._id;
+            return;
+        }
+        long[] stat = stat(file);
+        stats[i] = stat;
+        if (stat != null && entry != null && entry.matches(stat)) {
+            ids[i] = entry._id;
+        } else {
+            ids[i] = Blob.idOf(file.length(), file);
+        }
+    }
+
+    /** Record the blob id of a file that was just written from a blob.
+     * @param name name of the file.
+     * @param file the file.
+     * @param id the blob id of its content.
+     * **/
+    void record(String name, File file, String id) {
+        put(name, stat(file), id);
+    }
+
+    /** Return the names of the working files, as of the monitor's last
+     * report, or null if they are not known. **/
+    TreeSet<String> getNames() {
+        return _names;
+    }
+
+    /** Remember the names of the working files.
+     * @param names the names, or null if they are not known.
+     * **/
+    void setNames(TreeSet<String> names) {
+        _dirty |= names != null || _names != null;
+        _names = names;
+    }
+
+    /** Return the session of the monitor log the cache is up to date
+     * with, or 0 if there is none. **/
+    long getSession() {
+        return _session;
+    }
+
+    /** Return how far into the monitor log the cache is up to date. **/
+    long getOffset() {
+        return _offset;
+    }
+
+    /** Record how far into the monitor log the cache is up to date, and
+     * which files the monitor saw change since the previous point.
+     * @param session the session of the log, or 0 if no monitor runs.
+     * @param offset the offset in the log.
+     * @param changed the names of the changed files, or null if any file
+     *                may have changed.
+     * **/
+    void setCheckpoint(long session, long offset, Set<String> changed) {
+        _dirty |= session != _session || offset != _offset;
+        _session = session;
+        _offset = offset;
+        _changedFiles = changed;
+    }
+
+    /** Check whether the monitor vouches that a file did not change.
+     * @param name name of the file.
+     * @return true if the file is known to be unchanged.
+     * **/
+    private boolean unchanged(String name) {
+        return _changedFiles != null && !_changedFiles.contains(name);
+    }
+
+    /** Write the cache back to its file if it changed. **/
+    void save() {
+        if (!_dirty) {
+            return;
+        }
+        File temp = null;
+        try {
+            temp = File.createTempFile("stat", ".tmp", _file.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(_session);
+                out.writeLong(_offset);
+                out.writeInt(_names == null ? -1 : _names.size());
+                if (_names != null) {
+                    for (String name : _names) {
+                        out.writeUTF(name);
+                    }
+                }
+                out.writeInt(_entries.size());
+                for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    for (long value : e.getValue()._stat) {
+                        out.writeLong(value);
+                    }
+                    out.write(Pack.toBytes(e.getValue()._id));
+                }
+            }
+            Files.move(temp.toPath(), _file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+            _dirty = false;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /** Record or forget the id of a file.
+     * @param name name of the file.
+     * @param stat the stat data of the file, or null if it is missing.
+     * @param id the blob id.
+     * **/
+    private void put(String name, long[] stat, String id) {
+        long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        if (stat == null || stat[0] > now - RACY_WINDOW) {
+            _dirty |= _entries.remove(name) != null;
+        } else {
+            _entries.put(name, new Entry(stat, id));
+            _dirty = true;
+        }
+    }
+
+    /** Read the stat data of a file in a single call.
+     * @param file the file.
+     * @return the modification time in nanoseconds, the size and the
+     * inode, or null if the file cannot be read.
+     * **/
+    private static long[] stat(File file) {
+        try {
+            Map<String, Object> attrs = Files.readAttributes(file.toPath(),
+                    "unix:lastModifiedTime,size,ino",
+                    LinkOption.NOFOLLOW_LINKS);
+            return new long[] {
+                ((FileTime) attrs.get("lastModifiedTime"))
+                        .to(TimeUnit.NANOSECONDS),
+                (Long) attrs.get("size"), (Long) attrs.get("ino")};
+        } catch (UnsupportedOperationException excp) {
+            return basicStat(file);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Read the stat data of a file on systems without inodes.
+     * @param file the file.
+     * @return the stat data with an inode of 0, or null.
+     * **/
+    private static long[] basicStat(File file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return new long[] {
+                attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                attrs.size(), 0};
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** The cached stat data and id of one file. **/
+    private static class Entry {
+        /** Create an entry.
+         * @param stat modification time, size and inode.
+         * @param id the blob id.
+         * **/
+        Entry(long[] stat, String id) {
+            _stat = stat;
+            _id = id;
+        }
+
+        /** Check whether a file still has the recorded stat data.
+         * @param stat the current stat data.
+         * @return true if nothing changed.
+         * **/
+        boolean matches(long[] stat) {
+            return _stat[0] == stat[0] && _stat[1] == stat[1]
+                    && _stat[2] == stat[2];
+        }
+
+        /** Modification time, size and inode. **/
+        private final long[] _stat;
+        /** The blob id. **/
+        private final String _id;
+    }
+
+    /** Magic number at the start of the cache file, "GLST". **/
+    private static final int MAGIC = 0x474C5354;
+    /** Current version of the cache file. **/
+    private static final int VERSION = 2;
+    /** Files modified less than this many nanoseconds before they are
+     * recorded are not cached. **/
+    private static final long RACY_WINDOW = TimeUnit.SECONDS.toNanos(2);
+    /** The cache file. **/
+    private final File _file;
+    /** The entries by file name. **/
+    private final HashMap<String, Entry> _entries = new HashMap<>();
+    /** Names of the working files, or null if they are not known. **/
+    private TreeSet<String> _names;
+    /** Session of the monitor log the cache is up to date with. **/
+    private long _session;
+    /** Offset in the monitor log the cache is up to date with. **/
+    private long _offset;
+    /** Files the monitor saw change since the previous checkpoint, or
+     * null if there is no monitor. **/
+    private Set<String> _changedFiles;
+    /** True if the cache differs from the file. **/
+    private boolean _dirty;
+}
@@ -0,0 +1,40 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.File;
+
+/** Unit test for the stat cache.
+ * @author Vinh Bui
+ * **/
+public class StatCacheUnitTest {
+    private final File _cache = new File("testing/stat");
+    private final File _file = new File("testing/stat.txt");
+
+    @Test
+    public void testCachedIdSurvivesReload() {
+        _cache.delete();
+        Utils.writeContents(_file, "Hello World");
+        _file.setLastModified(System.currentTimeMillis() - 60000);
+        String id = Blob.idOf(_file.length(), _file);
+        StatCache cache = StatCache.load(_cache);
+        assertEquals(id, cache.idOf("stat.txt", _file));
+        cache.save();
+        assertTrue(_cache.exists());
+        assertEquals(id, StatCache.load(_cache).idOf("stat.txt", _file));
+    }
+
+    @Test
+    public void testChangedFileIsRehashed() {
+        _cache.delete();
+        Utils.writeContents(_file, "Hello World");
+        _file.setLastModified(System.currentTimeMillis() - 60000);
+        StatCache cache = StatCache.load(_cache);
+        String before = cache.idOf("stat.txt", _file);
+        Utils.writeContents(_file, "Hello Earth");
+        _file.setLastModified(System.currentTimeMillis() - 30000);
+        String after = cache.idOf("stat.txt", _file);
+        assertNotEquals(before, after);
+        assertEquals(Blob.idOf(_file.length(), _file), after);
+    }
+}
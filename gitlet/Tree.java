@@ -0,0 +1,383 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** A directory snapshot: the blob of every file and the tree of every
+ * subdirectory, by name. Trees are stored in the ObjectStore under the
+ * hash of their content, so an unchanged directory keeps its id and two
+ * snapshots can be compared one directory at a time, skipping every
+ * subtree whose id is the same on both sides. A commit points at the
+ * tree of the working directory; paths are '/'-separated.
+ * A tree is encoded as the number of entries followed by the entries in
+ * name order, each a kind byte, the name and the binary id.
+ * @author Vinh Bui
+ * **/
+class Tree {
+
+    /** Build a tree from the parent tree ID and a set of changes, reading
+     * and writing only the trees on the paths of the changed files.
+     * @param id the tree to change, or null for an empty tree.
+     * @param changes mapping from path to new blob id, or to null for a
+     *                file that is removed.
+     * @return the id of the new tree.
+     * **/
+    static String update(String id, Map<String, String> changes) {
+        String result = updateTree(id, changes);
+        return result == null ? new Tree().write() : result;
+    }
+
+    /** Return the blob id of every file under a tree.
+     * @param id the tree id.
+     * @return mapping from path to blob id.
+     * **/
+    static HashMap<String, String> flatten(String id) {
+        HashMap<String, String> result = new HashMap<>();
+        flatten(id, "", result);
+        return result;
+    }
+
+    /** Find the blob of one file, reading only the trees on its path.
+     * @param id the tree id.
+     * @param path the path of the file.
+     * @return the blob id, or null if the tree has no such file.
+     * **/
+    static String lookup(String id, String path) {
+        Tree tree = read(id);
+        int slash = path.indexOf('/');
+        while (slash >= 0) {
+            Entry entry = tree._entries.get(path.substring(0, slash));
+            if (entry == null || !entry._tree) {
+                return null;
+            }
+            tree = read(entry._id);
+            path = path.substring(slash + 1);
+            slash = path.indexOf('/');
+        }
+        Entry entry = tree._entries.get(path);
+        return entry == null || entry._tree ? null : entry._id;
+    }
+
+    /** Add the ids of a tree, its subtrees and their blobs to TREES and
+     * BLOBS. Subtrees already in TREES are not read again.
+     * @param id the tree id.
+     * @param trees the tree ids found so far.
+     * @param blobs the blob ids found so far.
+     * **/
+    static void collect(String id, Set<String> trees, Set<String> blobs) {
+        if (!trees.add(id)) {
+            return;
+        }
+        for (Entry entry : read(id)._entries.values()) {
+            if (entry._tree) {
+                collect(entry._id, trees, blobs);
+            } else {
+                blobs.add(entry._id);
+            }
+        }
+    }
+
+    /** Find every file that differs between two trees, skipping the
+     * subtrees that have the same id on both sides.
+     * @param from the old tree, or null for an empty tree.
+     * @param to the new tree, or null for an empty tree.
+     * @param changes receives the path of every differing file, mapped
+     *                to its blob id in TO, or to null if TO lacks it.
+     * **/
+    static void diff(String from, String to, Map<String, String> changes) {
+        diff(from, to, "", changes);
+    }
+
+    /** Find every file that differs between a tree and a set of files,
+     * such as those of the working directory. A directory is skipped
+     * without reading its tree when the ids of all its files are known and
+     * make up a tree with the same id.
+     * @param id the tree, or null for an empty tree.
+     * @param files mapping from path to blob id, or to null for a file
+     *              whose id is not known; such a file always differs.
+     * @param changes receives the path of every differing file, mapped
+     *                to its blob id in the tree, or to null if the tree
+     *                lacks it.
+     * **/
+    static void diffFiles(String id, Map<String, String> files,
+                          Map<String, String> changes) {
+        diffFiles(id, Listing.of(files), "", changes);
+    }
+
+    /** Read a tree.
+     * @param id the tree id.
+     * @return the tree.
+     * **/
+    static Tree read(String id) {
+        byte[] data = ObjectStore.read(ObjectStore.TREE, id);
+        if (data == null) {
+            throw Utils.error("No tree with id %s.", id);
+        }
+        Tree tree = new Tree();
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(data))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                boolean isTree = in.readByte() == TREE;
+                String name = in.readUTF();
+                byte[] entryId = new byte[Utils.UID_LENGTH / 2];
+                in.readFully(entryId);
+                tree._entries.put(name, new Entry(isTree,
+                        Pack.toHex(entryId)));
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Corrupted tree %s.", id);
+        }
+        return tree;
+    }
+
+    /** Store this tree unless it is already stored.
+     * @return its id.
+     * **/
+    String write() {
+        byte[] data = encode();
+        String id = hash(data);
+        if (!ObjectStore.contains(ObjectStore.TREE, id)) {
+            ObjectStore.write(ObjectStore.TREE, id, data);
+        }
+        return id;
+    }
+
+    /** Encode this tree.
+     * @return the encoded tree.
+     * **/
+    private byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(_entries.size());
+            for (Map.Entry<String, Entry> e : _entries.entrySet()) {
+                out.writeByte(e.getValue()._tree ? TREE : BLOB);
+                out.writeUTF(e.getKey());
+                out.write(Pack.toBytes(e.getValue()._id));
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error serializing tree.");
+        }
+    }
+
+    /** Return the id of a tree.
+     * @param data the encoded tree.
+     * @return its id.
+     * **/
+    private static String hash(byte[] data) {
+        return Utils.sha1("tree " + data.length + "\0", data);
+    }
+
+    /** Apply CHANGES to the tree ID.
+     * @param id the tree to change, or null for an empty tree.
+     * @param changes mapping from path to new blob id, or to null.
+     * @return the id of the new tree, or null if it is empty.
+     * **/
+    private static String updateTree(String id, Map<String, String> changes) {
+        Tree tree = id == null ? new Tree() : read(id);
+        TreeMap<String, Map<String, String>> nested = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                nested.computeIfAbsent(path.substring(0, slash),
+                        k -> new HashMap<>()).put(path.substring(slash + 1),
+                        change.getValue());
+            } else if (change.getValue() == null) {
+                tree._entries.remove(path);
+            } else {
+                tree._entries.put(path, new Entry(false, change.getValue()));
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> dir : nested.entrySet()) {
+            Entry old = tree._entries.get(dir.getKey());
+            String sub = updateTree(old != null && old._tree ? old._id : null,
+                    dir.getValue());
+            if (sub == null) {
+                tree._entries.remove(dir.getKey());
+            } else {
+                tree._entries.put(dir.getKey(), new Entry(true, sub));
+            }
+        }
+        return tree._entries.isEmpty() ? null : tree.write();
+    }
+
+    /** Add the blob id of every file under a tree to RESULT.
+     * @param id the tree id.
+     * @param prefix the path of the tree followed by '/', or "".
+     * @param result mapping from path to blob id.
+     * **/
+    private static void flatten(String id, String prefix,
+                                Map<String, String> result) {
+        for (Map.Entry<String, Entry> e : read(id)._entries.entrySet()) {
+            if (e.getValue()._tree) {
+                flatten(e.getValue()._id, prefix + e.getKey() + "/", result);
+            } else {
+                result.put(prefix + e.getKey(), e.getValue()._id);
+            }
+        }
+    }
+
+    /** Diff two trees under PREFIX.
+     * @param from the old tree, or null.
+     * @param to the new tree, or null.
+     * @param prefix the path of the trees followed by '/', or "".
+     * @param changes receives the differing files.
+     * **/
+    private static void diff(String from, String to, String prefix,
+                             Map<String, String> changes) {
+        if (Objects.equals(from, to)) {
+            return;
+        }
+        Map<String, Entry> old = from == null ? new TreeMap<>()
+                : read(from)._entries;
+        Map<String, Entry> current = to == null ? new TreeMap<>()
+                : read(to)._entries;
+        TreeSet<String> names = new TreeSet<>(old.keySet());
+        names.addAll(current.keySet());
+        for (String name : names) {
+            Entry a = old.get(name);
+            Entry b = current.get(name);
+            String path = prefix + name;
+            if (a != null && b != null && a._tree == b._tree
+                    && a._id.equals(b._id)) {
+                continue;
+            }
+            String subFrom = a != null && a._tree ? a._id : null;
+            String subTo = b != null && b._tree ? b._id : null;
+            if (subFrom != null || subTo != null) {
+                diff(subFrom, subTo, path + "/", changes);
+            }
+            if (b != null && !b._tree) {
+                changes.put(path, b._id);
+            } else if (a != null && !a._tree) {
+                changes.put(path, null);
+            }
+        }
+    }
+
+    /** Diff the tree ID against the files of DIR under PREFIX.
+     * @param id the tree, or null.
+     * @param dir the files.
+     * @param prefix the path of the directory followed by '/', or "".
+     * @param changes receives the differing files.
+     * **/
+    private static void diffFiles(String id, Listing dir, String prefix,
+                                  Map<String, String> changes) {
+        if (dir._id != null && dir._id.equals(id)) {
+            return;
+        }
+        Map<String, Entry> tracked = id == null ? new TreeMap<>()
+                : read(id)._entries;
+        TreeSet<String> names = new TreeSet<>(tracked.keySet());
+        names.addAll(dir._files.keySet());
+        names.addAll(dir._dirs.keySet());
+        for (String name : names) {
+            Entry entry = tracked.get(name);
+            Listing sub = dir._dirs.get(name);
+            String path = prefix + name;
+            if (sub != null || entry != null && entry._tree) {
+                diffFiles(entry != null && entry._tree ? entry._id : null,
+                        sub == null ? new Listing() : sub, path + "/",
+                        changes);
+            }
+            boolean present = dir._files.containsKey(name);
+            if (entry != null && !entry._tree) {
+                if (!present || !entry._id.equals(dir._files.get(name))) {
+                    changes.put(path, entry._id);
+                }
+            } else if (present) {
+                changes.put(path, null);
+            }
+        }
+    }
+
+    /** The files of one directory and its subdirectories, with the id of
+     * the tree they would make. **/
+    private static class Listing {
+        /** Group files by directory.
+         * @param files mapping from path to blob id, or to null.
+         * @return the listing of the top directory.
+         * **/
+        static Listing of(Map<String, String> files) {
+            Listing root = new Listing();
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                Listing dir = root;
+                String path = file.getKey();
+                int slash = path.indexOf('/');
+                while (slash >= 0) {
+                    dir = dir._dirs.computeIfAbsent(path.substring(0, slash),
+                            k -> new Listing());
+                    path = path.substring(slash + 1);
+                    slash = path.indexOf('/');
+                }
+                dir._files.put(path, file.getValue());
+            }
+            root.hash();
+            return root;
+        }
+
+        /** Compute the tree ids of this directory and its subdirectories.
+         * @return the id, or null if a file id is not known.
+         * **/
+        private String hash() {
+            Tree tree = new Tree();
+            boolean known = true;
+            for (Map.Entry<String, Listing> dir : _dirs.entrySet()) {
+                String sub = dir.getValue().hash();
+                known &= sub != null;
+                tree._entries.put(dir.getKey(), new Entry(true, sub));
+            }
+            for (Map.Entry<String, String> file : _files.entrySet()) {
+                known &= file.getValue() != null;
+                tree._entries.put(file.getKey(),
+                        new Entry(false, file.getValue()));
+            }
+            _id = known ? Tree.hash(tree.encode()) : null;
+            return _id;
+        }
+
+        /** Blob ids of the files, or null, by name. **/
+        private final TreeMap<String, String> _files = new TreeMap<>();
+        /** The subdirectories by name. **/
+        private final TreeMap<String, Listing> _dirs = new TreeMap<>();
+        /** Id of the tree of the files, or null if it is not known. **/
+        private String _id;
+    }
+
+    /** One entry of a tree. **/
+    private static class Entry {
+        /** Create an entry.
+         * @param isTree true for a subtree, false for a blob.
+         * @param id the id of the subtree or blob.
+         * **/
+        Entry(boolean isTree, String id) {
+            _tree = isTree;
+            _id = id;
+        }
+
+        /** True for a subtree. **/
+        private final boolean _tree;
+        /** The id of the subtree or blob. **/
+        private final String _id;
+    }
+
+    /** Kind byte of blob entries. **/
+    private static final byte BLOB = 'b';
+    /** Kind byte of tree entries. **/
+    private static final byte TREE = 't';
+    /** The entries by name. **/
+    private final TreeMap<String, Entry> _entries = new TreeMap<>();
+}
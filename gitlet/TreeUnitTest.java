@@ -0,0 +1,94 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Unit test for tree objects.
+ * @author Vinh Bui
+ * **/
+public class TreeUnitTest {
+    private static final String A = Utils.sha1("a");
+    private static final String B = Utils.sha1("b");
+    private static final String C = Utils.sha1("c");
+
+    /** Build the tree {src/main/a.txt: A, src/b.txt: B, top.txt: C}. **/
+    private String sample() {
+        Gitlet.setDefaultFolder("testing/tree-gitlet");
+        HashMap<String, String> files = new HashMap<>();
+        files.put("src/main/a.txt", A);
+        files.put("src/b.txt", B);
+        files.put("top.txt", C);
+        return Tree.update(null, files);
+    }
+
+    @Test
+    public void testFlattenAndLookup() {
+        String root = sample();
+        Map<String, String> files = Tree.flatten(root);
+        assertEquals(3, files.size());
+        assertEquals(A, files.get("src/main/a.txt"));
+        assertEquals(B, Tree.lookup(root, "src/b.txt"));
+        assertNull(Tree.lookup(root, "src/main"));
+        assertNull(Tree.lookup(root, "lib/c.txt"));
+    }
+
+    @Test
+    public void testUpdateKeepsUnchangedSubtrees() {
+        String root = sample();
+        HashMap<String, String> changes = new HashMap<>();
+        changes.put("top.txt", A);
+        String changed = Tree.update(root, changes);
+        HashMap<String, String> diff = new HashMap<>();
+        Tree.diff(root, changed, diff);
+        assertEquals(1, diff.size());
+        assertEquals(A, diff.get("top.txt"));
+        changes.put("top.txt", C);
+        assertEquals(root, Tree.update(changed, changes));
+    }
+
+    @Test
+    public void testRemovingLastFilePrunesDirectory() {
+        String root = sample();
+        HashMap<String, String> changes = new HashMap<>();
+        changes.put("src/main/a.txt", null);
+        String changed = Tree.update(root, changes);
+        HashMap<String, String> diff = new HashMap<>();
+        Tree.diff(root, changed, diff);
+        assertTrue(diff.containsKey("src/main/a.txt"));
+        assertNull(diff.get("src/main/a.txt"));
+        assertFalse(Tree.flatten(changed).containsKey("src/main/a.txt"));
+        assertEquals(2, Tree.flatten(changed).size());
+    }
+
+    @Test
+    public void testDiffFiles() {
+        String root = sample();
+        HashMap<String, String> files = new HashMap<>();
+        files.put("src/main/a.txt", A);
+        files.put("src/b.txt", null);
+        files.put("top.txt", A);
+        files.put("new.txt", B);
+        HashMap<String, String> diff = new HashMap<>();
+        Tree.diffFiles(root, files, diff);
+        assertEquals(3, diff.size());
+        assertEquals(B, diff.get("src/b.txt"));
+        assertEquals(C, diff.get("top.txt"));
+        assertTrue(diff.containsKey("new.txt"));
+        assertNull(diff.get("new.txt"));
+
+        files.put("src/b.txt", B);
+        files.put("top.txt", C);
+        files.remove("new.txt");
+        files.remove("src/main/a.txt");
+        diff.clear();
+        Tree.diffFiles(root, files, diff);
+        assertEquals(1, diff.size());
+        assertEquals(A, diff.get("src/main/a.txt"));
+        files.put("src/main/a.txt", A);
+        diff.clear();
+        Tree.diffFiles(root, files, diff);
+        assertTrue(diff.isEmpty());
+    }
+}
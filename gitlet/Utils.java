@@ -6,12 +6,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
@@ -29,28 +33,54 @@ class Utils {
     /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
     static final int UID_LENGTH = 40;
 
+    /** Size of the buffer used to stream file contents. */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Files at least this large are hashed through memory-mapped
+     *  windows instead of a read buffer. */
+    static final long MAP_THRESHOLD = 1 << 20;
+
+    /** Size of each memory-mapped window of a file being hashed. */
+    static final long MAP_WINDOW = 64L << 20;
+
+    /** One SHA-1 digest per thread, reset and reused by every call. */
+    private static final ThreadLocal<MessageDigest> SHA1 =
+        ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException(
+                    "System does not support SHA-1");
+            }
+        });
+
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
-     *  be any mixture of byte arrays and Strings. */
+     *  be any mixture of byte arrays, Strings, Files and InputStreams.
+     *  The contents of a File or the rest of an InputStream are streamed
+     *  through the digest in bounded buffers, or in memory-mapped windows
+     *  for files of at least MAP_THRESHOLD bytes, so the heap used does
+     *  not grow with the size of the file. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
+        MessageDigest md = SHA1.get();
+        md.reset();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else if (val instanceof File) {
+                digestFile(md, (File) val);
+            } else if (val instanceof InputStream) {
+                digestStream(md, (InputStream) val);
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
         }
+        Formatter result = new Formatter();
+        for (byte b : md.digest()) {
+            result.format("%02x", b);
+        }
+        return result.toString();
     }
 
     /** Returns the SHA-1 hash of the concatenation of the strings in
@@ -59,6 +89,42 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Feed the contents of FILE into MD.  Throws IllegalArgumentException
+     *  in case of problems. */
+    private static void digestFile(MessageDigest md, File file) {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                 StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < MAP_THRESHOLD) {
+                digestStream(md, Channels.newInputStream(channel));
+                return;
+            }
+            for (long pos = 0; pos < size; pos += MAP_WINDOW) {
+                md.update(channel.map(FileChannel.MapMode.READ_ONLY, pos,
+                                      Math.min(MAP_WINDOW, size - pos)));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Feed the rest of IN into MD.  Throws IllegalArgumentException
+     *  in case of problems. */
+    private static void digestStream(MessageDigest md, InputStream in) {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true